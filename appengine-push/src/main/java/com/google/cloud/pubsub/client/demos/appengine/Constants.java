@@ -8,6 +8,10 @@ public final class Constants {
      * A memcache key for storing query result for recent messages.
      */
     public static final String MESSAGE_CACHE_KEY = "messageCache";
+    /**
+     * A memcache key marking the topic and the subscription as provisioned.
+     */
+    public static final String PROVISIONED_CACHE_KEY = "provisioned";
     /**
      * A base package name.
      */
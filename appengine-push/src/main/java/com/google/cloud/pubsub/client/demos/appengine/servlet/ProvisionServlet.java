@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.google.cloud.pubsub.client.demos.appengine.servlet;
+
+import com.google.cloud.pubsub.client.demos.appengine.util.Provisioner;
+
+import java.io.IOException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Re-verifies the application Pub/Sub resources; called by cron.
+ */
+public class ProvisionServlet extends HttpServlet {
+
+    @Override
+    public final void doGet(final HttpServletRequest req,
+                            final HttpServletResponse resp)
+            throws IOException {
+        Provisioner.provision();
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.getWriter().close();
+    }
+}
@@ -19,14 +19,18 @@ package com.google.cloud.pubsub.client.demos.appengine.servlet;
 import com.google.api.client.json.JsonParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.pubsub.model.PubsubMessage;
-import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.memcache.AsyncMemcacheService;
 import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.cloud.pubsub.client.demos.appengine.Constants;
+import com.google.cloud.pubsub.client.demos.appengine.util.MessageBuffer;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -59,19 +63,38 @@ public class ReceiveMessageServlet extends HttpServlet {
         parser.skipToKey("message");
         PubsubMessage message = parser.parseAndClose(PubsubMessage.class);
 
-        // Store the message in the datastore
-        Entity messageToStore = new Entity("PubsubMessage");
-        messageToStore.setProperty("message",
-                new String(message.decodeData(), "UTF-8"));
-        messageToStore.setProperty("receipt-time", System.currentTimeMillis());
-        DatastoreService datastore =
-                DatastoreServiceFactory.getDatastoreService();
-        datastore.put(messageToStore);
+        String text = new String(message.decodeData(), "UTF-8");
+        long receiptTime = System.currentTimeMillis();
+        if (MessageBuffer.isEnabled()) {
+            // Stage the message, it is stored later in a batch
+            MessageBuffer.stage(text, receiptTime);
+        } else {
+            // Store the message in the datastore and invalidate the cache
+            // at the same time
+            Entity messageToStore = new Entity("PubsubMessage");
+            messageToStore.setProperty("message", text);
+            messageToStore.setProperty("receipt-time", receiptTime);
+            AsyncDatastoreService datastore =
+                    DatastoreServiceFactory.getAsyncDatastoreService();
+            Future<Key> put = datastore.put(messageToStore);
+            AsyncMemcacheService memcacheService =
+                    MemcacheServiceFactory.getAsyncMemcacheService();
+            memcacheService.delete(Constants.MESSAGE_CACHE_KEY);
+            try {
+                put.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
 
-        // Invalidate the cache
-        MemcacheService memcacheService =
-                MemcacheServiceFactory.getMemcacheService();
-        memcacheService.delete(Constants.MESSAGE_CACHE_KEY);
+            // A fetch between the first delete and the end of the put may
+            // have cached the messages without this one: invalidate again.
+            // Memcache calls take far less than a datastore put, so this
+            // adds little to the request.
+            memcacheService.delete(Constants.MESSAGE_CACHE_KEY);
+        }
 
         // Acknowledge the message by returning a success code
         resp.setStatus(HttpServletResponse.SC_OK);
@@ -16,10 +16,10 @@
 
 package com.google.cloud.pubsub.client.demos.appengine.servlet;
 
-import com.google.api.services.pubsub.Pubsub;
 import com.google.api.services.pubsub.model.PublishRequest;
 import com.google.api.services.pubsub.model.PubsubMessage;
-import com.google.cloud.pubsub.client.demos.appengine.util.PubsubUtils;
+import com.google.cloud.pubsub.client.demos.appengine.util.PubsubClientHolder;
+import com.google.cloud.pubsub.client.demos.appengine.util.ResourceNames;
 import com.google.common.collect.ImmutableList;
 
 import java.io.IOException;
@@ -36,20 +36,17 @@ public class SendMessageServlet extends HttpServlet {
     public final void doPost(final HttpServletRequest req,
                              final HttpServletResponse resp)
             throws IOException {
-        Pubsub client = PubsubUtils.getClient();
         String message = req.getParameter("message");
         if (!"".equals(message)) {
-            String fullTopicName = String.format("projects/%s/topics/%s",
-                    PubsubUtils.getProjectId(),
-                    PubsubUtils.getAppTopicName());
+            String fullTopicName = ResourceNames.get().getFullTopicName();
             PubsubMessage pubsubMessage = new PubsubMessage();
             pubsubMessage.encodeData(message.getBytes("UTF-8"));
             PublishRequest publishRequest = new PublishRequest();
             publishRequest.setMessages(ImmutableList.of(pubsubMessage));
 
-            client.projects().topics()
-                    .publish(fullTopicName, publishRequest)
-                    .execute();
+            // Sends a second copy if the call is slow
+            PubsubClientHolder.getHedgedPublisher()
+                    .publish(fullTopicName, publishRequest);
         }
         resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
         resp.getWriter().close();
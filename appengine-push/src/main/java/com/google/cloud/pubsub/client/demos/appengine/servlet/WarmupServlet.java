@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.google.cloud.pubsub.client.demos.appengine.servlet;
+
+import com.google.cloud.pubsub.client.demos.appengine.util.Provisioner;
+import com.google.cloud.pubsub.client.demos.appengine.util.PubsubClientHolder;
+
+import java.io.IOException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Handles the warmup requests of App Engine, sent to new instances before
+ * they get any traffic, by building the shared Pubsub client and
+ * provisioning the application Pub/Sub resources. Loaded on startup, it
+ * also builds the client when the instance starts without a warmup
+ * request.
+ */
+public class WarmupServlet extends HttpServlet {
+
+    @Override
+    public final void init() {
+        try {
+            PubsubClientHolder.getClient();
+        } catch (IOException e) {
+            // The first request which needs the client tries again.
+            log("Failed to build the Pubsub client on startup", e);
+        }
+    }
+
+    @Override
+    public final void doGet(final HttpServletRequest req,
+                            final HttpServletResponse resp)
+            throws IOException {
+        PubsubClientHolder.getClient();
+        Provisioner.ensureProvisioned();
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.getWriter().close();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.google.cloud.pubsub.client.demos.appengine.util;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.cloud.pubsub.client.demos.appengine.Constants;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stages the received messages in a pull queue and writes them to the
+ * datastore in batches.
+ *
+ * <p>Adding a task to a pull queue is durable, so a push can be
+ * acknowledged as soon as its message is staged. A flush task, scheduled
+ * at most once per interval whatever the number of messages, then leases
+ * the staged messages and stores them with a single datastore put per
+ * batch, and invalidates the cache once.</p>
+ */
+public final class MessageBuffer {
+
+    /**
+     * The system property which enables the buffered mode.
+     */
+    public static final String ENABLED_PROPERTY =
+            Constants.BASE_PACKAGE + ".bufferedReceive";
+
+    /**
+     * The pull queue where the messages are staged, see queue.xml.
+     */
+    static final String BUFFER_QUEUE_NAME = "message-buffer";
+
+    /**
+     * The push queue of the flush tasks, see queue.xml.
+     */
+    static final String FLUSH_QUEUE_NAME = "message-flush";
+
+    /**
+     * The URL of the flush task handler.
+     */
+    static final String FLUSH_URL = "/tasks/flush_messages";
+
+    /**
+     * Time in milliseconds between two flushes.
+     */
+    static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Max number of messages leased and stored at once; the max number of
+     * entities of a datastore batch put.
+     */
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * Time in seconds a batch is leased for.
+     */
+    static final long LEASE_SECONDS = 60;
+
+    /**
+     * The last flush interval for which this instance scheduled a flush.
+     */
+    private static final AtomicLong LAST_FLUSH_INTERVAL = new AtomicLong();
+
+    /**
+     * Prevents instantiation.
+     */
+    private MessageBuffer() {
+    }
+
+    /**
+     * Returns whether the buffered mode is enabled.
+     *
+     * @return true if the messages are to be staged.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Stages a message and makes sure a flush is scheduled. The message is
+     * durable once this method returns.
+     *
+     * @param message The message text.
+     * @param receiptTime The time the message was received.
+     */
+    public static void stage(final String message, final long receiptTime) {
+        QueueFactory.getQueue(BUFFER_QUEUE_NAME).add(
+                TaskOptions.Builder.withMethod(TaskOptions.Method.PULL)
+                        .param("message", message)
+                        .param("receipt-time", Long.toString(receiptTime)));
+        scheduleFlush(receiptTime);
+    }
+
+    /**
+     * Schedules the flush of the current interval, unless this instance
+     * already did. The task is named after the interval, so only one flush
+     * runs per interval across all the instances. Should the name be taken
+     * already, e.g. by a flush which already ran because of a clock skew,
+     * the flush of the next interval is scheduled instead, and failing
+     * that an unnamed one due after one interval.
+     *
+     * @param now The current time.
+     */
+    private static void scheduleFlush(final long now) {
+        long interval = now / FLUSH_INTERVAL_MILLIS;
+        if (LAST_FLUSH_INTERVAL.getAndSet(interval) == interval) {
+            return;
+        }
+        if (!addNamedFlush(interval) && !addNamedFlush(interval + 1)) {
+            QueueFactory.getQueue(FLUSH_QUEUE_NAME).add(
+                    TaskOptions.Builder.withUrl(FLUSH_URL)
+                            .countdownMillis(FLUSH_INTERVAL_MILLIS));
+        }
+    }
+
+    /**
+     * Adds the flush task of an interval, due at its end.
+     *
+     * @param interval The flush interval.
+     * @return false if the task exists or existed already.
+     */
+    private static boolean addNamedFlush(final long interval) {
+        try {
+            QueueFactory.getQueue(FLUSH_QUEUE_NAME).add(
+                    TaskOptions.Builder.withUrl(FLUSH_URL)
+                            .taskName("flush-" + interval)
+                            .etaMillis((interval + 1) * FLUSH_INTERVAL_MILLIS));
+            return true;
+        } catch (TaskAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Schedules the flush of the next interval. Being named after the
+     * interval, it is added once however many flushes ask for it, so the
+     * follow-ups don't pile up; if it exists already, it is still due, as
+     * the next interval has not ended yet.
+     */
+    private static void addFollowUpFlush() {
+        addNamedFlush(System.currentTimeMillis() / FLUSH_INTERVAL_MILLIS + 1);
+    }
+
+    /**
+     * Stores the staged messages in the datastore, a batch at a time, and
+     * then deletes them from the queue. The entities are keyed by the task
+     * names, so a batch stored again after a lost delete is not duplicated.
+     * Unless the queue was found empty, a follow-up flush is scheduled, so
+     * that the messages staged meanwhile are stored even if no other
+     * message comes to schedule a flush.
+     *
+     * @throws IOException when a staged message can not be decoded.
+     */
+    public static void flush() throws IOException {
+        Queue queue = QueueFactory.getQueue(BUFFER_QUEUE_NAME);
+        boolean flushed = false;
+        List<TaskHandle> tasks;
+        do {
+            tasks = queue.leaseTasks(LEASE_SECONDS, TimeUnit.SECONDS,
+                    BATCH_SIZE);
+            if (tasks.isEmpty()) {
+                break;
+            }
+            List<Entity> entities = new ArrayList<>(tasks.size());
+            for (TaskHandle task : tasks) {
+                Entity entity = new Entity("PubsubMessage", task.getName());
+                for (Map.Entry<String, String> param : task.extractParams()) {
+                    if ("message".equals(param.getKey())) {
+                        entity.setProperty("message", param.getValue());
+                    } else if ("receipt-time".equals(param.getKey())) {
+                        entity.setProperty("receipt-time",
+                                Long.parseLong(param.getValue()));
+                    }
+                }
+                entities.add(entity);
+            }
+            DatastoreServiceFactory.getDatastoreService().put(entities);
+            queue.deleteTask(tasks);
+            flushed = true;
+        } while (tasks.size() == BATCH_SIZE);
+
+        if (flushed) {
+            // Invalidate the cache
+            MemcacheServiceFactory.getMemcacheService()
+                    .delete(Constants.MESSAGE_CACHE_KEY);
+        }
+        if (!tasks.isEmpty()) {
+            addFollowUpFlush();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.google.cloud.pubsub.client.demos.appengine.util;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PushConfig;
+import com.google.api.services.pubsub.model.Subscription;
+import com.google.api.services.pubsub.model.Topic;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.cloud.pubsub.client.demos.appengine.Constants;
+
+import java.io.IOException;
+
+/**
+ * Creates the topic and the subscription of the application, once.
+ *
+ * <p>The resources are provisioned by the warmup request of an instance,
+ * and then marked as such in memcache, so that the other instances and
+ * the landing page don't check them again. A cron job re-verifies them
+ * periodically, in case they were deleted or the mark evicted.</p>
+ */
+public final class Provisioner {
+
+    /**
+     * Whether this instance has seen the resources provisioned.
+     */
+    private static volatile boolean provisioned;
+
+    /**
+     * Prevents instantiation.
+     */
+    private Provisioner() {
+    }
+
+    /**
+     * Provisions the resources unless this instance or another one already
+     * did. Once done, it costs nothing.
+     *
+     * @throws IOException when API calls to Cloud Pub/Sub fails.
+     */
+    public static void ensureProvisioned() throws IOException {
+        if (provisioned) {
+            return;
+        }
+        MemcacheService memcacheService =
+                MemcacheServiceFactory.getMemcacheService();
+        if (memcacheService.contains(Constants.PROVISIONED_CACHE_KEY)) {
+            provisioned = true;
+            return;
+        }
+        provision();
+    }
+
+    /**
+     * Creates the resources which don't exist, and marks them as
+     * provisioned.
+     *
+     * @throws IOException when API calls to Cloud Pub/Sub fails.
+     */
+    public static void provision() throws IOException {
+        Pubsub client = PubsubClientHolder.getClient();
+        ResourceNames names = ResourceNames.get();
+        setupTopic(client, names);
+        setupSubscription(client, names);
+        MemcacheServiceFactory.getMemcacheService()
+                .put(Constants.PROVISIONED_CACHE_KEY, Boolean.TRUE);
+        provisioned = true;
+    }
+
+    /**
+     * Creates a Cloud Pub/Sub topic if it doesn't exist.
+     *
+     * @param client Pubsub client object.
+     * @param names Names of the application resources.
+     * @throws IOException when API calls to Cloud Pub/Sub fails.
+     */
+    private static void setupTopic(final Pubsub client,
+                                   final ResourceNames names)
+            throws IOException {
+        String fullName = names.getFullTopicName();
+
+        try {
+            client.projects().topics().get(fullName).execute();
+        } catch (GoogleJsonResponseException e) {
+            if (e.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+                // Create the topic if it doesn't exist
+                client.projects().topics()
+                        .create(fullName, new Topic())
+                        .execute();
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Creates a Cloud Pub/Sub subscription if it doesn't exist.
+     *
+     * @param client Pubsub client object.
+     * @param names Names of the application resources.
+     * @throws IOException when API calls to Cloud Pub/Sub fails.
+     */
+    private static void setupSubscription(final Pubsub client,
+                                          final ResourceNames names)
+            throws IOException {
+        String fullName = names.getFullSubscriptionName();
+
+        try {
+            client.projects().subscriptions().get(fullName).execute();
+        } catch (GoogleJsonResponseException e) {
+            if (e.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+                // Create the subscription if it doesn't exist
+                PushConfig pushConfig = new PushConfig()
+                        .setPushEndpoint(names.getEndpointUrl());
+                Subscription subscription = new Subscription()
+                        .setTopic(names.getFullTopicName())
+                        .setPushConfig(pushConfig);
+                client.projects().subscriptions()
+                        .create(fullName, subscription)
+                        .execute();
+            } else {
+                throw e;
+            }
+        }
+    }
+}
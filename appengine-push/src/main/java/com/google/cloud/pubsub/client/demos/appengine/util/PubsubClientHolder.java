@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.google.cloud.pubsub.client.demos.appengine.util;
+
+import com.google.api.services.pubsub.Pubsub;
+import com.google.appengine.api.ThreadManager;
+import com.google.cloud.pubsub.client.core.HedgedPublisher;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Holds the Pubsub client and the hedged publisher shared by all the
+ * servlets of an instance.
+ *
+ * <p>The client, its credential and its request initializer are built
+ * once, by the warmup request or else by the first request which needs
+ * them, so that the other requests don't pay for them. The hedged
+ * publisher is shared too, so that its delay follows the latency of all
+ * the publish calls of the instance.</p>
+ */
+public final class PubsubClientHolder {
+
+    /**
+     * Creates the threads of the hedged calls as request threads of the
+     * calling request, as App Engine doesn't let other threads make API
+     * calls nor outlive a request.
+     */
+    private static final ThreadFactory REQUEST_THREAD_FACTORY =
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return ThreadManager.currentRequestThreadFactory()
+                            .newThread(runnable);
+                }
+            };
+
+    /**
+     * The client, or null until it is built.
+     */
+    private static volatile Pubsub client;
+
+    /**
+     * The hedged publisher, or null until it is built.
+     */
+    private static volatile HedgedPublisher hedgedPublisher;
+
+    /**
+     * Prevents instantiation.
+     */
+    private PubsubClientHolder() {
+    }
+
+    /**
+     * Returns the client of the instance, building it on the first call.
+     *
+     * @return Pubsub client.
+     * @throws IOException when we can not get the default credentials.
+     */
+    public static Pubsub getClient() throws IOException {
+        Pubsub result = client;
+        if (result == null) {
+            synchronized (PubsubClientHolder.class) {
+                result = client;
+                if (result == null) {
+                    result = PubsubUtils.getClient();
+                    client = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hedged publisher of the instance, building it on the
+     * first call.
+     *
+     * @return the hedged publisher.
+     * @throws IOException when we can not get the default credentials.
+     */
+    public static HedgedPublisher getHedgedPublisher() throws IOException {
+        HedgedPublisher result = hedgedPublisher;
+        if (result == null) {
+            Pubsub pubsub = getClient();
+            synchronized (PubsubClientHolder.class) {
+                result = hedgedPublisher;
+                if (result == null) {
+                    result = new HedgedPublisher(pubsub,
+                            HedgedPublisher.DEFAULT_PERCENTILE,
+                            HedgedPublisher.DEFAULT_MAX_HEDGE_RATE,
+                            REQUEST_THREAD_FACTORY);
+                    hedgedPublisher = result;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -16,18 +16,11 @@
 
 package com.google.cloud.pubsub.client.demos.appengine.util;
 
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.api.client.googleapis.util.Utils;
-import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.services.pubsub.Pubsub;
-import com.google.api.services.pubsub.PubsubScopes;
-import com.google.appengine.api.appidentity.AppIdentityService;
-import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
-import com.google.apphosting.api.ApiProxy;
-import com.google.cloud.pubsub.client.demos.appengine.Constants;
-import com.google.common.base.Preconditions;
+import com.google.cloud.pubsub.client.core.PubsubClients;
 
 import java.io.IOException;
 
@@ -71,19 +64,9 @@ public final class PubsubUtils {
     public static Pubsub getClient(final HttpTransport httpTransport,
                                    final JsonFactory jsonFactory)
             throws IOException {
-        Preconditions.checkNotNull(httpTransport);
-        Preconditions.checkNotNull(jsonFactory);
-        GoogleCredential credential = GoogleCredential.getApplicationDefault();
-        if (credential.createScopedRequired()) {
-            credential = credential.createScoped(PubsubScopes.all());
-        }
-        // Please use custom HttpRequestInitializer for automatic
-        // retry upon failures.
-        HttpRequestInitializer initializer =
-                new RetryHttpInitializerWrapper(credential);
-        return new Pubsub.Builder(httpTransport, jsonFactory, initializer)
-                .setApplicationName(APPLICATION_NAME)
-                .build();
+        // Retries failures and fails fast while the service is down.
+        return PubsubClients.getClient(httpTransport, jsonFactory,
+                APPLICATION_NAME);
     }
 
     /**
@@ -92,7 +75,7 @@ public final class PubsubUtils {
      * @return a topic name.
      */
     public static String getAppTopicName() {
-        return "topic-pubsub-api-appengine-sample";
+        return ResourceNames.get().getTopicName();
     }
 
     /**
@@ -101,7 +84,7 @@ public final class PubsubUtils {
      * @return a subscription name.
      */
     public static String getAppSubscriptionName() {
-        return "subscription-" + getProjectId();
+        return ResourceNames.get().getSubscriptionName();
     }
 
     /**
@@ -110,12 +93,7 @@ public final class PubsubUtils {
      * @return the push endpoint URL.
      */
     public static String getAppEndpointUrl() {
-        String subscriptionUniqueToken = System.getProperty(
-                Constants.BASE_PACKAGE + ".subscriptionUniqueToken");
-
-        return "https://" + getProjectId()
-            + ".appspot.com/_ah/push-handlers/receive_message"
-            + "?token=" + subscriptionUniqueToken;
+        return ResourceNames.get().getEndpointUrl();
     }
 
     /**
@@ -124,12 +102,6 @@ public final class PubsubUtils {
      * @return the project ID.
      */
     public static String getProjectId() {
-        AppIdentityService identityService =
-                AppIdentityServiceFactory.getAppIdentityService();
-
-        // The project ID associated to an app engine application is the same
-        // as the app ID.
-        return identityService.parseFullAppId(ApiProxy.getCurrentEnvironment()
-                .getAppId()).getId();
+        return ResourceNames.get().getProjectId();
     }
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.google.cloud.pubsub.client.demos.appengine.util;
+
+import com.google.appengine.api.appidentity.AppIdentityService;
+import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
+import com.google.apphosting.api.ApiProxy;
+import com.google.cloud.pubsub.client.demos.appengine.Constants;
+
+/**
+ * The names of the Pub/Sub resources of this application, resolved once
+ * per instance.
+ *
+ * <p>The names only depend on the app ID and on a system property, so
+ * they are computed on the first request and then shared, instead of
+ * asking the App Identity service and formatting them again on every
+ * request.</p>
+ */
+public final class ResourceNames {
+
+    /**
+     * The names of this instance, or null until they are resolved.
+     */
+    private static volatile ResourceNames instance;
+
+    /**
+     * The project ID.
+     */
+    private final String projectId;
+
+    /**
+     * The topic name.
+     */
+    private final String topicName;
+
+    /**
+     * The subscription name.
+     */
+    private final String subscriptionName;
+
+    /**
+     * The fully qualified topic name.
+     */
+    private final String fullTopicName;
+
+    /**
+     * The fully qualified subscription name.
+     */
+    private final String fullSubscriptionName;
+
+    /**
+     * The push endpoint URL.
+     */
+    private final String endpointUrl;
+
+    /**
+     * The push endpoint URL, with its token redacted.
+     */
+    private final String redactedEndpointUrl;
+
+    /**
+     * A constructor.
+     *
+     * @param projectId The project ID.
+     * @param topicName The topic name.
+     * @param subscriptionName The subscription name.
+     * @param subscriptionUniqueToken The token expected by the push
+     * endpoint.
+     */
+    ResourceNames(final String projectId, final String topicName,
+                  final String subscriptionName,
+                  final String subscriptionUniqueToken) {
+        this.projectId = projectId;
+        this.topicName = topicName;
+        this.subscriptionName = subscriptionName;
+        this.fullTopicName = "projects/" + projectId + "/topics/" + topicName;
+        this.fullSubscriptionName = "projects/" + projectId
+                + "/subscriptions/" + subscriptionName;
+        String endpoint = "https://" + projectId
+                + ".appspot.com/_ah/push-handlers/receive_message?token=";
+        this.endpointUrl = endpoint + subscriptionUniqueToken;
+        this.redactedEndpointUrl = endpoint + "REDACTED";
+    }
+
+    /**
+     * Returns the names of this application, resolving them on the first
+     * call, which must be made by a request thread.
+     *
+     * @return the resource names.
+     */
+    public static ResourceNames get() {
+        ResourceNames result = instance;
+        if (result == null) {
+            synchronized (ResourceNames.class) {
+                result = instance;
+                if (result == null) {
+                    String projectId = resolveProjectId();
+                    result = new ResourceNames(projectId,
+                            "topic-pubsub-api-appengine-sample",
+                            "subscription-" + projectId,
+                            System.getProperty(Constants.BASE_PACKAGE
+                                    + ".subscriptionUniqueToken"));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Asks the App Identity service for the project ID.
+     *
+     * @return the project ID.
+     */
+    private static String resolveProjectId() {
+        AppIdentityService identityService =
+                AppIdentityServiceFactory.getAppIdentityService();
+
+        // The project ID associated to an app engine application is the same
+        // as the app ID.
+        return identityService.parseFullAppId(ApiProxy.getCurrentEnvironment()
+                .getAppId()).getId();
+    }
+
+    /**
+     * Returns the project ID.
+     *
+     * @return the project ID.
+     */
+    public String getProjectId() {
+        return projectId;
+    }
+
+    /**
+     * Returns the topic name.
+     *
+     * @return the topic name.
+     */
+    public String getTopicName() {
+        return topicName;
+    }
+
+    /**
+     * Returns the subscription name.
+     *
+     * @return the subscription name.
+     */
+    public String getSubscriptionName() {
+        return subscriptionName;
+    }
+
+    /**
+     * Returns the fully qualified topic name, as passed to the API.
+     *
+     * @return the fully qualified topic name.
+     */
+    public String getFullTopicName() {
+        return fullTopicName;
+    }
+
+    /**
+     * Returns the fully qualified subscription name, as passed to the API.
+     *
+     * @return the fully qualified subscription name.
+     */
+    public String getFullSubscriptionName() {
+        return fullSubscriptionName;
+    }
+
+    /**
+     * Returns the push endpoint URL.
+     *
+     * @return the push endpoint URL.
+     */
+    public String getEndpointUrl() {
+        return endpointUrl;
+    }
+
+    /**
+     * Returns the push endpoint URL with its token redacted, for display.
+     *
+     * @return the redacted push endpoint URL.
+     */
+    public String getRedactedEndpointUrl() {
+        return redactedEndpointUrl;
+    }
+}
@@ -0,0 +1,103 @@
+package com.google.cloud.pubsub.client.demos.benchmarks;
+
+import com.google.api.client.googleapis.util.Utils;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.pubsub.model.PublishRequest;
+import com.google.api.services.pubsub.model.PullResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the JSON bodies of the REST path: serializing a PublishRequest
+ * and parsing a PullResponse, with the JsonFactory the clients use.
+ * Compare with {@link ProtobufWireBenchmark} for the gRPC path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+
+    /**
+     * Number of messages in the request or response.
+     */
+    @Param({"1", "100", "1000"})
+    public int batchSize;
+
+    /**
+     * Size in bytes of the payload of every message.
+     */
+    @Param({"128", "4096"})
+    public int payloadSize;
+
+    /**
+     * The JsonFactory used by PubsubUtils.getClient().
+     */
+    private final JsonFactory jsonFactory = Utils.getDefaultJsonFactory();
+
+    /**
+     * The request to serialize.
+     */
+    private PublishRequest publishRequest;
+
+    /**
+     * The serialized response to parse.
+     */
+    private byte[] pullResponseJson;
+
+    /**
+     * Builds the request and the serialized response.
+     *
+     * @throws IOException never.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        publishRequest = new PublishRequest()
+                .setMessages(Messages.published(batchSize, payloadSize));
+        pullResponseJson = jsonFactory.toByteArray(new PullResponse()
+                .setReceivedMessages(
+                        Messages.received(batchSize, payloadSize)));
+    }
+
+    /**
+     * Serializes a PublishRequest, as the body of a publish call.
+     *
+     * @return the JSON.
+     * @throws IOException never.
+     */
+    @Benchmark
+    public byte[] serializePublishRequest() throws IOException {
+        return jsonFactory.toByteArray(publishRequest);
+    }
+
+    /**
+     * Parses a PullResponse, as the body of a pull call.
+     *
+     * @return the response.
+     * @throws IOException never.
+     */
+    @Benchmark
+    public PullResponse parsePullResponse() throws IOException {
+        return jsonFactory.createJsonParser(
+                new ByteArrayInputStream(pullResponseJson),
+                StandardCharsets.UTF_8)
+                .parseAndClose(PullResponse.class);
+    }
+}
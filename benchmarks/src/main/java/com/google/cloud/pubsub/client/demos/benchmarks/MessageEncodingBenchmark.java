@@ -0,0 +1,88 @@
+package com.google.cloud.pubsub.client.demos.benchmarks;
+
+import com.google.api.services.pubsub.model.PubsubMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per message of turning a payload into the base64 data of a
+ * PubsubMessage and back, and into a String as the samples print it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageEncodingBenchmark {
+
+    /**
+     * Size in bytes of the payload.
+     */
+    @Param({"16", "1024", "65536"})
+    public int payloadSize;
+
+    /**
+     * The raw payload.
+     */
+    private byte[] payload;
+
+    /**
+     * A message holding the payload.
+     */
+    private PubsubMessage message;
+
+    /**
+     * Builds the payload and the message.
+     */
+    @Setup
+    public void setUp() {
+        payload = Messages.payload(payloadSize);
+        message = new PubsubMessage().encodeData(payload);
+    }
+
+    /**
+     * PubsubMessage.encodeData, as done for every published message.
+     *
+     * @return the message.
+     */
+    @Benchmark
+    public PubsubMessage encodeData() {
+        return new PubsubMessage().encodeData(payload);
+    }
+
+    /**
+     * PubsubMessage.decodeData, as done for every pulled message.
+     *
+     * @return the payload.
+     */
+    @Benchmark
+    public byte[] decodeData() {
+        return message.decodeData();
+    }
+
+    /**
+     * Decoding a pulled message and turning it into a String, as
+     * pull_messages does.
+     *
+     * @return the payload as a String.
+     * @throws UnsupportedEncodingException never.
+     */
+    @Benchmark
+    public String decodeToString() throws UnsupportedEncodingException {
+        return new String(message.decodeData(), "UTF-8");
+    }
+}
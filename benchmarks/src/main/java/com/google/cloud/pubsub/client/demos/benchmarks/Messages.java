@@ -0,0 +1,105 @@
+package com.google.cloud.pubsub.client.demos.benchmarks;
+
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Builds the synthetic messages the benchmarks work on.
+ */
+final class Messages {
+
+    /**
+     * Seed of the payloads, so that every run sees the same data.
+     */
+    private static final long SEED = 42;
+
+    /**
+     * Prevents instantiation.
+     */
+    private Messages() {
+    }
+
+    /**
+     * Returns a payload of printable ASCII characters, like the text
+     * messages of the samples.
+     *
+     * @param size Size in bytes of the payload.
+     * @return the payload.
+     */
+    static byte[] payload(final int size) {
+        Random random = new Random(SEED);
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) (' ' + random.nextInt('~' - ' '));
+        }
+        return payload;
+    }
+
+    /**
+     * Returns the attributes of the messages.
+     *
+     * @return two small attributes.
+     */
+    static Map<String, String> attributes() {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("source", "benchmark");
+        attributes.put("seq", "123456");
+        return attributes;
+    }
+
+    /**
+     * Returns messages as they are published.
+     *
+     * @param count Number of messages.
+     * @param size Size in bytes of the payload of every message.
+     * @return the messages.
+     */
+    static List<PubsubMessage> published(final int count, final int size) {
+        byte[] payload = payload(size);
+        List<PubsubMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new PubsubMessage()
+                    .encodeData(payload)
+                    .setAttributes(attributes()));
+        }
+        return messages;
+    }
+
+    /**
+     * Returns messages as they are pulled.
+     *
+     * @param count Number of messages.
+     * @param size Size in bytes of the payload of every message.
+     * @return the messages.
+     */
+    static List<ReceivedMessage> received(final int count, final int size) {
+        List<ReceivedMessage> messages = new ArrayList<>(count);
+        int i = 0;
+        for (PubsubMessage message : published(count, size)) {
+            message.setMessageId(Long.toString(1000000000L + i))
+                    .setPublishTime("2016-01-01T00:00:00.000Z");
+            messages.add(new ReceivedMessage()
+                    .setAckId(ackId(i))
+                    .setMessage(message));
+            i++;
+        }
+        return messages;
+    }
+
+    /**
+     * Returns an ack id of a realistic length.
+     *
+     * @param i Index of the message.
+     * @return the ack id.
+     */
+    static String ackId(final int i) {
+        return String.format("QV5AEkw4A0RJUytDCypYEU4EISE-MD5FU0RQBhYsXUZIUTcZ"
+                + "CGhRDk9eIz81IChFEgMIFAV8fXFd%010d", i);
+    }
+}
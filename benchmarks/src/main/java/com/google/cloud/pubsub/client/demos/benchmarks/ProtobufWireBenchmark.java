@@ -0,0 +1,413 @@
+package com.google.cloud.pubsub.client.demos.benchmarks;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the protobuf bodies of the gRPC path, for the same requests and
+ * responses as {@link JsonSerializationBenchmark}.
+ *
+ * <p>The grpc sample generates its classes from the .proto files at build
+ * time, so this benchmark writes and reads the same google.pubsub.v1 wire
+ * format field by field with the protobuf runtime instead, which is what
+ * the generated code does too. Payloads stay raw bytes; there is no base64
+ * step on this path.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtobufWireBenchmark {
+
+    /**
+     * PublishRequest.topic.
+     */
+    private static final int PUBLISH_REQUEST_TOPIC = 1;
+
+    /**
+     * PublishRequest.messages.
+     */
+    private static final int PUBLISH_REQUEST_MESSAGES = 2;
+
+    /**
+     * PubsubMessage.data.
+     */
+    private static final int MESSAGE_DATA = 1;
+
+    /**
+     * PubsubMessage.attributes.
+     */
+    private static final int MESSAGE_ATTRIBUTES = 2;
+
+    /**
+     * PubsubMessage.message_id.
+     */
+    private static final int MESSAGE_ID = 3;
+
+    /**
+     * PubsubMessage.publish_time.
+     */
+    private static final int MESSAGE_PUBLISH_TIME = 4;
+
+    /**
+     * Timestamp.seconds.
+     */
+    private static final int TIMESTAMP_SECONDS = 1;
+
+    /**
+     * Key of a map entry.
+     */
+    private static final int ENTRY_KEY = 1;
+
+    /**
+     * Value of a map entry.
+     */
+    private static final int ENTRY_VALUE = 2;
+
+    /**
+     * PullResponse.received_messages.
+     */
+    private static final int PULL_RESPONSE_RECEIVED_MESSAGES = 1;
+
+    /**
+     * ReceivedMessage.ack_id.
+     */
+    private static final int RECEIVED_ACK_ID = 1;
+
+    /**
+     * ReceivedMessage.message.
+     */
+    private static final int RECEIVED_MESSAGE = 2;
+
+    /**
+     * Publish time of the pulled messages, in seconds since the epoch.
+     */
+    private static final long PUBLISH_TIME_SECONDS = 1451606400L;
+
+    /**
+     * Number of messages in the request or response.
+     */
+    @Param({"1", "100", "1000"})
+    public int batchSize;
+
+    /**
+     * Size in bytes of the payload of every message.
+     */
+    @Param({"128", "4096"})
+    public int payloadSize;
+
+    /**
+     * Topic of the request.
+     */
+    private final String topic = "projects/my-project/topics/my-topic";
+
+    /**
+     * Payload of the messages.
+     */
+    private ByteString payload;
+
+    /**
+     * Attributes of the messages.
+     */
+    private Map<String, String> attributes;
+
+    /**
+     * The serialized response to parse.
+     */
+    private byte[] pullResponse;
+
+    /**
+     * A pulled message, as the generated class would hold it.
+     */
+    public static final class Received {
+        /**
+         * The ack id.
+         */
+        private String ackId;
+
+        /**
+         * The payload.
+         */
+        private ByteString data;
+
+        /**
+         * The attributes.
+         */
+        private final Map<String, String> attributes = new HashMap<>();
+
+        /**
+         * The message id.
+         */
+        private String messageId;
+
+        /**
+         * The publish time in seconds since the epoch.
+         */
+        private long publishTimeSeconds;
+    }
+
+    /**
+     * Builds the payload and the serialized response.
+     *
+     * @throws IOException never.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        payload = ByteString.copyFrom(Messages.payload(payloadSize));
+        attributes = Messages.attributes();
+        int size = 0;
+        List<byte[]> receivedMessages = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            byte[] receivedMessage = receivedMessage(i);
+            receivedMessages.add(receivedMessage);
+            size += CodedOutputStream.computeByteArraySize(
+                    PULL_RESPONSE_RECEIVED_MESSAGES, receivedMessage);
+        }
+        pullResponse = new byte[size];
+        CodedOutputStream out = CodedOutputStream.newInstance(pullResponse);
+        for (byte[] receivedMessage : receivedMessages) {
+            out.writeByteArray(PULL_RESPONSE_RECEIVED_MESSAGES,
+                    receivedMessage);
+        }
+        out.checkNoSpaceLeft();
+    }
+
+    /**
+     * Serializes a PublishRequest, as the body of a publish call.
+     *
+     * @return the serialized request.
+     * @throws IOException never.
+     */
+    @Benchmark
+    public byte[] serializePublishRequest() throws IOException {
+        int messageSize = publishedMessageSize();
+        int size = CodedOutputStream.computeStringSize(
+                PUBLISH_REQUEST_TOPIC, topic)
+                + batchSize * (CodedOutputStream.computeTagSize(
+                        PUBLISH_REQUEST_MESSAGES)
+                + CodedOutputStream.computeRawVarint32Size(messageSize)
+                + messageSize);
+        byte[] request = new byte[size];
+        CodedOutputStream out = CodedOutputStream.newInstance(request);
+        out.writeString(PUBLISH_REQUEST_TOPIC, topic);
+        for (int i = 0; i < batchSize; i++) {
+            out.writeTag(PUBLISH_REQUEST_MESSAGES,
+                    WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeRawVarint32(messageSize);
+            out.writeBytes(MESSAGE_DATA, payload);
+            writeAttributes(out);
+        }
+        out.checkNoSpaceLeft();
+        return request;
+    }
+
+    /**
+     * Parses a PullResponse, as the body of a pull call.
+     *
+     * @return the pulled messages.
+     * @throws IOException never.
+     */
+    @Benchmark
+    public List<Received> parsePullResponse() throws IOException {
+        List<Received> messages = new ArrayList<>(batchSize);
+        CodedInputStream in = CodedInputStream.newInstance(pullResponse);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag)
+                    != PULL_RESPONSE_RECEIVED_MESSAGES) {
+                in.skipField(tag);
+                continue;
+            }
+            int limit = in.pushLimit(in.readRawVarint32());
+            messages.add(parseReceivedMessage(in));
+            in.popLimit(limit);
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the size of a published message.
+     *
+     * @return the size in bytes.
+     */
+    private int publishedMessageSize() {
+        int size = CodedOutputStream.computeBytesSize(MESSAGE_DATA, payload);
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            int entrySize = entrySize(entry);
+            size += CodedOutputStream.computeTagSize(MESSAGE_ATTRIBUTES)
+                    + CodedOutputStream.computeRawVarint32Size(entrySize)
+                    + entrySize;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the size of an attribute.
+     *
+     * @param entry The attribute.
+     * @return the size in bytes.
+     */
+    private static int entrySize(final Map.Entry<String, String> entry) {
+        return CodedOutputStream.computeStringSize(ENTRY_KEY, entry.getKey())
+                + CodedOutputStream.computeStringSize(ENTRY_VALUE,
+                        entry.getValue());
+    }
+
+    /**
+     * Writes the attributes of a message.
+     *
+     * @param out The stream.
+     * @throws IOException never.
+     */
+    private void writeAttributes(final CodedOutputStream out)
+            throws IOException {
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            out.writeTag(MESSAGE_ATTRIBUTES,
+                    WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeRawVarint32(entrySize(entry));
+            out.writeString(ENTRY_KEY, entry.getKey());
+            out.writeString(ENTRY_VALUE, entry.getValue());
+        }
+    }
+
+    /**
+     * Serializes a pulled message.
+     *
+     * @param i Index of the message.
+     * @return the serialized ReceivedMessage.
+     * @throws IOException never.
+     */
+    private byte[] receivedMessage(final int i) throws IOException {
+        String messageId = Long.toString(1000000000L + i);
+        int timestampSize = CodedOutputStream.computeInt64Size(
+                TIMESTAMP_SECONDS, PUBLISH_TIME_SECONDS);
+        int messageSize = publishedMessageSize()
+                + CodedOutputStream.computeStringSize(MESSAGE_ID, messageId)
+                + CodedOutputStream.computeTagSize(MESSAGE_PUBLISH_TIME)
+                + CodedOutputStream.computeRawVarint32Size(timestampSize)
+                + timestampSize;
+        String ackId = Messages.ackId(i);
+        byte[] received = new byte[
+                CodedOutputStream.computeStringSize(RECEIVED_ACK_ID, ackId)
+                + CodedOutputStream.computeTagSize(RECEIVED_MESSAGE)
+                + CodedOutputStream.computeRawVarint32Size(messageSize)
+                + messageSize];
+        CodedOutputStream out = CodedOutputStream.newInstance(received);
+        out.writeString(RECEIVED_ACK_ID, ackId);
+        out.writeTag(RECEIVED_MESSAGE, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeRawVarint32(messageSize);
+        out.writeBytes(MESSAGE_DATA, payload);
+        writeAttributes(out);
+        out.writeString(MESSAGE_ID, messageId);
+        out.writeTag(MESSAGE_PUBLISH_TIME,
+                WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeRawVarint32(timestampSize);
+        out.writeInt64(TIMESTAMP_SECONDS, PUBLISH_TIME_SECONDS);
+        out.checkNoSpaceLeft();
+        return received;
+    }
+
+    /**
+     * Parses a ReceivedMessage.
+     *
+     * @param in The stream, limited to the message.
+     * @return the message.
+     * @throws IOException never.
+     */
+    private static Received parseReceivedMessage(final CodedInputStream in)
+            throws IOException {
+        Received received = new Received();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case RECEIVED_ACK_ID:
+                    received.ackId = in.readStringRequireUtf8();
+                    break;
+                case RECEIVED_MESSAGE:
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    parseMessage(in, received);
+                    in.popLimit(limit);
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        return received;
+    }
+
+    /**
+     * Parses a PubsubMessage.
+     *
+     * @param in The stream, limited to the message.
+     * @param received Receives the fields.
+     * @throws IOException never.
+     */
+    private static void parseMessage(final CodedInputStream in,
+                                     final Received received)
+            throws IOException {
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case MESSAGE_DATA:
+                    received.data = in.readBytes();
+                    break;
+                case MESSAGE_ATTRIBUTES:
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    String key = null;
+                    String value = null;
+                    int entryTag;
+                    while ((entryTag = in.readTag()) != 0) {
+                        if (WireFormat.getTagFieldNumber(entryTag)
+                                == ENTRY_KEY) {
+                            key = in.readStringRequireUtf8();
+                        } else {
+                            value = in.readStringRequireUtf8();
+                        }
+                    }
+                    received.attributes.put(key, value);
+                    in.popLimit(limit);
+                    break;
+                case MESSAGE_ID:
+                    received.messageId = in.readStringRequireUtf8();
+                    break;
+                case MESSAGE_PUBLISH_TIME:
+                    int timeLimit = in.pushLimit(in.readRawVarint32());
+                    while ((tag = in.readTag()) != 0) {
+                        if (WireFormat.getTagFieldNumber(tag)
+                                == TIMESTAMP_SECONDS) {
+                            received.publishTimeSeconds = in.readInt64();
+                        } else {
+                            in.skipField(tag);
+                        }
+                    }
+                    in.popLimit(timeLimit);
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.google.cloud.pubsub.client.demos.cli;
+
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.cloud.pubsub.client.core.BatchingPublisher;
+import com.google.cloud.pubsub.client.core.LatencyHistogram;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams the records of a file into a topic.
+ *
+ * <p>The file is read through a FileChannel into a reusable buffer, so its
+ * size doesn't matter; only the messages which are not published yet are
+ * kept in memory, up to a max number of bytes.</p>
+ */
+public final class FilePublisher {
+
+    /**
+     * How the records are delimited in the file.
+     */
+    public enum Format {
+        /**
+         * One record per line; empty lines are skipped.
+         */
+        NEWLINE,
+        /**
+         * Every record is preceded by its length as a 4 byte big-endian
+         * integer.
+         */
+        LENGTH_PREFIXED
+    }
+
+    /**
+     * Default number of publish calls made at the same time.
+     */
+    static final int DEFAULT_CONCURRENCY = 8;
+
+    /**
+     * Default max number of bytes read but not published yet.
+     */
+    static final int DEFAULT_MAX_OUTSTANDING_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Initial size of the read buffer.
+     */
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Size of the length prefix of a record.
+     */
+    private static final int LENGTH_PREFIX_BYTES = 4;
+
+    /**
+     * Largest record accepted: records are base64 encoded when published,
+     * so larger ones can't fit in a publish call.
+     */
+    private static final int MAX_RECORD_BYTES =
+            BatchingPublisher.MAX_DATA_BYTES;
+
+    /**
+     * Publishes the records.
+     */
+    private final BatchingPublisher publisher;
+
+    /**
+     * Fully qualified name of the topic.
+     */
+    private final String topic;
+
+    /**
+     * Max number of bytes read but not published yet.
+     */
+    private final int maxOutstandingBytes;
+
+    /**
+     * Permits for the bytes read but not published yet.
+     */
+    private final Semaphore outstandingBytes;
+
+    /**
+     * Time from reading a record to the publish call completing.
+     */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /**
+     * Number of records which failed to be published.
+     */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * The first error, if any.
+     */
+    private final AtomicReference<Throwable> firstFailure =
+            new AtomicReference<>();
+
+    /**
+     * Number of records read.
+     */
+    private long records;
+
+    /**
+     * Number of payload bytes read.
+     */
+    private long bytes;
+
+    /**
+     * Time taken by the last call to publish().
+     */
+    private long elapsedNanos;
+
+    /**
+     * A constructor.
+     *
+     * @param publisher Publishes the records; it is flushed but not closed.
+     * @param topic Fully qualified name of the topic.
+     * @param maxOutstandingBytes Max number of bytes read but not
+     * published yet.
+     */
+    public FilePublisher(final BatchingPublisher publisher, final String topic,
+                         final int maxOutstandingBytes) {
+        Preconditions.checkArgument(maxOutstandingBytes > 0,
+                "max outstanding bytes must be positive");
+        this.publisher = Preconditions.checkNotNull(publisher);
+        this.topic = Preconditions.checkNotNull(topic);
+        this.maxOutstandingBytes = maxOutstandingBytes;
+        this.outstandingBytes = new Semaphore(maxOutstandingBytes);
+    }
+
+    /**
+     * Publishes all the records of a file and waits for them to complete.
+     *
+     * @param file The file to read.
+     * @param format How the records are delimited.
+     * @throws IOException when the file can't be read, or some records
+     * failed to be published.
+     */
+    public void publish(final Path file, final Format format)
+            throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel =
+                     FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            boolean eof = false;
+            while (!eof) {
+                if (!buffer.hasRemaining()) {
+                    buffer = grow(buffer);
+                }
+                eof = channel.read(buffer) < 0;
+                buffer.flip();
+                if (format == Format.NEWLINE) {
+                    publishLines(buffer, eof);
+                } else {
+                    publishLengthPrefixed(buffer);
+                }
+                buffer.compact();
+            }
+            if (buffer.position() > 0) {
+                throw new IOException("Truncated record at the end of "
+                        + file);
+            }
+        } finally {
+            publisher.flush();
+            awaitOutstanding();
+            elapsedNanos = System.nanoTime() - start;
+        }
+        if (failures.get() > 0) {
+            throw new IOException(failures.get() + " of " + records
+                    + " records failed to be published", firstFailure.get());
+        }
+    }
+
+    /**
+     * Returns the throughput and latency of the last call to publish().
+     *
+     * @return a human readable summary.
+     */
+    public String getSummary() {
+        double seconds = Math.max(1, elapsedNanos) / 1e9;
+        return String.format(
+                "Published %d messages (%d bytes) in %.1f s: "
+                + "%.0f msgs/s, %.2f MB/s%nPublish latency: %s",
+                records - failures.get(), bytes, seconds, records / seconds,
+                bytes / seconds / 1e6, latencies.getSummary());
+    }
+
+    /**
+     * Publishes the complete lines in the buffer, and the trailing partial
+     * line at the end of the file.
+     *
+     * @param buffer Buffer in read mode; its position is moved past the
+     * lines published.
+     * @param eof Whether the end of the file is reached.
+     * @throws IOException when interrupted.
+     */
+    private void publishLines(final ByteBuffer buffer, final boolean eof)
+            throws IOException {
+        int start = buffer.position();
+        for (int i = start; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                int end = i;
+                if (end > start && buffer.get(end - 1) == '\r') {
+                    end--;
+                }
+                publishRecord(buffer, start, end - start);
+                start = i + 1;
+            }
+        }
+        if (eof && start < buffer.limit()) {
+            publishRecord(buffer, start, buffer.limit() - start);
+            start = buffer.limit();
+        }
+        buffer.position(start);
+    }
+
+    /**
+     * Publishes the complete length-prefixed records in the buffer.
+     *
+     * @param buffer Buffer in read mode; its position is moved past the
+     * records published.
+     * @throws IOException when a length is invalid, or when interrupted.
+     */
+    private void publishLengthPrefixed(final ByteBuffer buffer)
+            throws IOException {
+        while (buffer.remaining() >= LENGTH_PREFIX_BYTES) {
+            int length = buffer.getInt(buffer.position());
+            if (length < 0) {
+                throw new IOException("Invalid record length " + length
+                        + " after " + bytes + " bytes");
+            }
+            if (length > MAX_RECORD_BYTES) {
+                throw new IOException("Record of " + length + " bytes after "
+                        + bytes + " bytes is larger than the max of "
+                        + MAX_RECORD_BYTES + " bytes");
+            }
+            if (buffer.remaining() < LENGTH_PREFIX_BYTES + length) {
+                return;
+            }
+            int start = buffer.position() + LENGTH_PREFIX_BYTES;
+            publishRecord(buffer, start, length);
+            buffer.position(start + length);
+        }
+    }
+
+    /**
+     * Publishes a record, blocking while too many bytes are outstanding.
+     *
+     * @param buffer Buffer holding the record.
+     * @param offset Offset of the record in the buffer.
+     * @param length Length of the record.
+     * @throws IOException when interrupted.
+     */
+    private void publishRecord(final ByteBuffer buffer, final int offset,
+                               final int length) throws IOException {
+        if (length == 0) {
+            // The API rejects messages without data.
+            return;
+        }
+        byte[] data = new byte[length];
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset);
+        record.get(data);
+        final int permits = Math.min(length, maxOutstandingBytes);
+        try {
+            outstandingBytes.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while publishing");
+        }
+        records++;
+        bytes += length;
+        final long start = System.nanoTime();
+        Futures.addCallback(
+                publisher.publish(topic, new PubsubMessage().encodeData(data)),
+                new FutureCallback<String>() {
+                    @Override
+                    public void onSuccess(final String messageId) {
+                        latencies.record(TimeUnit.NANOSECONDS.toMicros(
+                                System.nanoTime() - start));
+                        outstandingBytes.release(permits);
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable t) {
+                        failures.incrementAndGet();
+                        firstFailure.compareAndSet(null, t);
+                        outstandingBytes.release(permits);
+                    }
+                });
+    }
+
+    /**
+     * Waits until all the records are published.
+     *
+     * @throws IOException when interrupted.
+     */
+    private void awaitOutstanding() throws IOException {
+        try {
+            outstandingBytes.acquire(maxOutstandingBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while publishing");
+        }
+        outstandingBytes.release(maxOutstandingBytes);
+    }
+
+    /**
+     * Doubles the size of a full buffer so that a large record fits.
+     *
+     * @param buffer Full buffer in write mode.
+     * @return a larger buffer in write mode with the same contents.
+     * @throws IOException when a record can't fit in any buffer.
+     */
+    private static ByteBuffer grow(final ByteBuffer buffer)
+            throws IOException {
+        if (buffer.capacity() >= MAX_RECORD_BYTES + LENGTH_PREFIX_BYTES) {
+            throw new IOException("Record larger than the max of "
+                    + MAX_RECORD_BYTES + " bytes");
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.min(
+                2 * buffer.capacity(), MAX_RECORD_BYTES + LENGTH_PREFIX_BYTES));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
@@ -0,0 +1,412 @@
+package com.google.cloud.pubsub.client.demos.cli;
+
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.cloud.pubsub.client.core.BatchingPublisher;
+import com.google.cloud.pubsub.client.core.FlowController;
+import com.google.cloud.pubsub.client.core.LatencyHistogram;
+import com.google.cloud.pubsub.client.core.LeaseManager;
+import com.google.cloud.pubsub.client.core.MessageDispatcher;
+import com.google.cloud.pubsub.client.core.MessageHandler;
+import com.google.cloud.pubsub.client.core.PipelinedPuller;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes synthetic messages to a topic, at a target rate or as fast as
+ * possible, while consuming them from a subscription of that topic with a
+ * {@link PipelinedPuller}, and reports the throughput and the publish and
+ * end-to-end latencies.
+ *
+ * <p>Every message carries the time it was published and the id of the
+ * run in its attributes, so that the messages left over by previous runs
+ * are acknowledged but not measured.</p>
+ */
+public final class LoadTest {
+
+    /**
+     * Default number of messages published.
+     */
+    static final int DEFAULT_MESSAGE_COUNT = 100000;
+
+    /**
+     * Default size in bytes of the payload of the messages.
+     */
+    static final int DEFAULT_PAYLOAD_SIZE = 1024;
+
+    /**
+     * Default number of publish requests in flight.
+     */
+    static final int DEFAULT_CONCURRENCY = 8;
+
+    /**
+     * Attribute holding the id of the run.
+     */
+    private static final String RUN_ATTRIBUTE = "loadtest_run";
+
+    /**
+     * Attribute holding System.nanoTime() at publish time.
+     */
+    private static final String SENT_ATTRIBUTE = "loadtest_sent_nanos";
+
+    /**
+     * Max number of messages published but not yet acknowledged by the
+     * service.
+     */
+    private static final int MAX_OUTSTANDING_PUBLISHES = 10 * Main.BATCH_SIZE;
+
+    /**
+     * Time in seconds without any message received after which the
+     * missing messages are given up on.
+     */
+    private static final long IDLE_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Max time in milliseconds to wait for the consumer to stop.
+     */
+    private static final long CONSUMER_STOP_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * Bytes in a megabyte.
+     */
+    private static final double BYTES_PER_MEGABYTE = 1e6;
+
+    /**
+     * Cloud Pub/Sub client.
+     */
+    private final Pubsub client;
+
+    /**
+     * Fully qualified name of the topic.
+     */
+    private final String topic;
+
+    /**
+     * Fully qualified name of the subscription.
+     */
+    private final String subscriptionName;
+
+    /**
+     * Number of messages published.
+     */
+    private final int messageCount;
+
+    /**
+     * Size in bytes of the payload of the messages.
+     */
+    private final int payloadSize;
+
+    /**
+     * Messages published per second, or 0 for as fast as possible.
+     */
+    private final int rate;
+
+    /**
+     * Number of publish requests and of pull requests in flight.
+     */
+    private final int concurrency;
+
+    /**
+     * Id of this run.
+     */
+    private final String runId = UUID.randomUUID().toString();
+
+    /**
+     * Time from the publish call to the message id.
+     */
+    private final LatencyHistogram publishLatencies = new LatencyHistogram();
+
+    /**
+     * Time from the publish call to the handler.
+     */
+    private final LatencyHistogram endToEndLatencies = new LatencyHistogram();
+
+    /**
+     * Counts down for every message received or failed to be published.
+     */
+    private final CountDownLatch remaining;
+
+    /**
+     * Bounds the messages published but not yet acknowledged.
+     */
+    private final Semaphore outstandingPublishes =
+            new Semaphore(MAX_OUTSTANDING_PUBLISHES);
+
+    /**
+     * Number of messages which failed to be published.
+     */
+    private final AtomicLong publishFailures = new AtomicLong();
+
+    /**
+     * Number of messages of this run received, including redeliveries.
+     */
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * Why the consumer stopped, if it failed.
+     */
+    private final AtomicReference<Throwable> consumerFailure =
+            new AtomicReference<>();
+
+    /**
+     * A constructor.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param topic Fully qualified name of the topic.
+     * @param subscriptionName Fully qualified name of a subscription to the
+     * topic.
+     * @param messageCount Number of messages published.
+     * @param payloadSize Size in bytes of the payload of the messages.
+     * @param rate Messages published per second, or 0 for as fast as
+     * possible.
+     * @param concurrency Number of publish requests and of pull requests in
+     * flight.
+     */
+    public LoadTest(final Pubsub client, final String topic,
+                    final String subscriptionName, final int messageCount,
+                    final int payloadSize, final int rate,
+                    final int concurrency) {
+        Preconditions.checkArgument(messageCount > 0,
+                "message count must be positive");
+        Preconditions.checkArgument(payloadSize > 0,
+                "payload size must be positive");
+        Preconditions.checkArgument(rate >= 0, "rate must not be negative");
+        Preconditions.checkArgument(concurrency > 0,
+                "concurrency must be positive");
+        this.client = Preconditions.checkNotNull(client);
+        this.topic = Preconditions.checkNotNull(topic);
+        this.subscriptionName = Preconditions.checkNotNull(subscriptionName);
+        this.messageCount = messageCount;
+        this.payloadSize = payloadSize;
+        this.rate = rate;
+        this.concurrency = concurrency;
+        this.remaining = new CountDownLatch(messageCount);
+    }
+
+    /**
+     * Runs the test and prints a report to stdout.
+     *
+     * @throws IOException when Cloud Pub/Sub API calls fail.
+     */
+    public void run() throws IOException {
+        Thread consumer = startConsumer();
+        long start = System.nanoTime();
+        long publishNanos;
+        try {
+            publishAll();
+            publishNanos = System.nanoTime() - start;
+            awaitReceived();
+        } finally {
+            consumer.interrupt();
+            try {
+                consumer.join(CONSUMER_STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long totalNanos = System.nanoTime() - start;
+        long published = messageCount - publishFailures.get();
+        System.out.println(String.format(
+                "Published %d messages of %d bytes in %.1f s: "
+                + "%.0f msgs/s, %.2f MB/s",
+                published, payloadSize, publishNanos / NANOS_PER_SECOND,
+                perSecond(published, publishNanos),
+                perSecond(published * payloadSize, publishNanos)
+                        / BYTES_PER_MEGABYTE));
+        long receivedCount = endToEndLatencies.getCount();
+        System.out.println(String.format(
+                "Received %d messages in %.1f s: %.0f msgs/s, %.2f MB/s",
+                receivedCount, totalNanos / NANOS_PER_SECOND,
+                perSecond(receivedCount, totalNanos),
+                perSecond(receivedCount * payloadSize, totalNanos)
+                        / BYTES_PER_MEGABYTE));
+        System.out.println("Publish latency: "
+                + publishLatencies.getSummary());
+        System.out.println("End-to-end latency: "
+                + endToEndLatencies.getSummary());
+        TopicMethods.printHedgeSummary(client);
+        if (publishFailures.get() > 0 || remaining.getCount() > 0) {
+            System.out.println(String.format(
+                    "%d messages failed to be published, %d were not "
+                    + "received.", publishFailures.get(),
+                    remaining.getCount()));
+        }
+        if (consumerFailure.get() != null) {
+            throw new IOException("The consumer failed",
+                    consumerFailure.get());
+        }
+    }
+
+    /**
+     * Starts pulling the messages in a background thread.
+     *
+     * @return the thread, to be interrupted to stop pulling.
+     */
+    private Thread startConsumer() {
+        MessageDispatcher dispatcher = new MessageDispatcher(
+                new MessageHandler() {
+                    @Override
+                    public void handle(final PubsubMessage message) {
+                        onReceived(message);
+                    }
+                },
+                Main.getIntProperty(Main.THREADS_ENV_NAME,
+                        Runtime.getRuntime().availableProcessors()),
+                MessageDispatcher.DEFAULT_QUEUE_SIZE, null);
+        final PipelinedPuller puller = new PipelinedPuller(client,
+                subscriptionName, dispatcher, concurrency,
+                LeaseManager.DEFAULT_MAX_EXTENSION_SECONDS,
+                new FlowController(
+                        FlowController.DEFAULT_MAX_OUTSTANDING_MESSAGES,
+                        FlowController.DEFAULT_MAX_OUTSTANDING_BYTES));
+        Thread consumer = new Thread("loadtest-consumer") {
+            @Override
+            public void run() {
+                try {
+                    puller.run();
+                } catch (IOException | RuntimeException e) {
+                    consumerFailure.set(e);
+                    // Nothing more will be received.
+                    while (remaining.getCount() > 0) {
+                        remaining.countDown();
+                    }
+                }
+            }
+        };
+        consumer.setDaemon(true);
+        consumer.start();
+        return consumer;
+    }
+
+    /**
+     * Publishes all the messages, at the target rate if any.
+     *
+     * @throws IOException when interrupted.
+     */
+    private void publishAll() throws IOException {
+        byte[] payload = new byte[payloadSize];
+        new Random().nextBytes(payload);
+        // Encoded once, as it is the same for all the messages.
+        String data = new PubsubMessage().encodeData(payload).getData();
+        BatchingPublisher publisher = PubsubUtils.newBatchingPublisher(
+                client, concurrency);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < messageCount; i++) {
+                if (rate > 0) {
+                    long due = start + (long) (i * NANOS_PER_SECOND / rate);
+                    long delay = due - System.nanoTime();
+                    if (delay > 0) {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    }
+                }
+                outstandingPublishes.acquire();
+                final long sent = System.nanoTime();
+                Map<String, String> attributes = ImmutableMap.of(
+                        RUN_ATTRIBUTE, runId,
+                        SENT_ATTRIBUTE, Long.toString(sent));
+                PubsubMessage message = new PubsubMessage()
+                        .setData(data)
+                        .setAttributes(attributes);
+                Futures.addCallback(publisher.publish(topic, message),
+                        new FutureCallback<String>() {
+                            @Override
+                            public void onSuccess(final String messageId) {
+                                publishLatencies.record(microsSince(sent));
+                                outstandingPublishes.release();
+                            }
+
+                            @Override
+                            public void onFailure(final Throwable t) {
+                                publishFailures.incrementAndGet();
+                                remaining.countDown();
+                                outstandingPublishes.release();
+                            }
+                        });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while publishing");
+        } finally {
+            publisher.close();
+        }
+    }
+
+    /**
+     * Waits until all the messages are received, or none has been
+     * received for a while.
+     *
+     * @throws IOException when interrupted.
+     */
+    private void awaitReceived() throws IOException {
+        try {
+            long lastCount = remaining.getCount();
+            while (!remaining.await(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                if (remaining.getCount() == lastCount) {
+                    return;
+                }
+                lastCount = remaining.getCount();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while receiving");
+        }
+    }
+
+    /**
+     * Records the latency of a message of this run.
+     *
+     * @param message A received message.
+     */
+    private void onReceived(final PubsubMessage message) {
+        Map<String, String> attributes = message.getAttributes();
+        if (attributes == null
+                || !runId.equals(attributes.get(RUN_ATTRIBUTE))) {
+            return;
+        }
+        long sent = Long.parseLong(attributes.get(SENT_ATTRIBUTE));
+        endToEndLatencies.record(microsSince(sent));
+        if (received.incrementAndGet() <= messageCount) {
+            remaining.countDown();
+        }
+    }
+
+    /**
+     * Returns the time elapsed since a System.nanoTime() value.
+     *
+     * @param nanos A value of System.nanoTime().
+     * @return the elapsed time in microseconds.
+     */
+    private static long microsSince(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - nanos);
+    }
+
+    /**
+     * Returns a rate per second.
+     *
+     * @param count A count.
+     * @param nanos A duration in nanoseconds.
+     * @return the count per second.
+     */
+    private static double perSecond(final long count, final long nanos) {
+        return count * NANOS_PER_SECOND / Math.max(1, nanos);
+    }
+}
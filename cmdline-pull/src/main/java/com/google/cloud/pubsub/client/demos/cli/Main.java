@@ -1,6 +1,9 @@
 package com.google.cloud.pubsub.client.demos.cli;
 
 import com.google.api.services.pubsub.Pubsub;
+import com.google.cloud.pubsub.client.core.HttpTransports;
+import com.google.cloud.pubsub.client.core.PubsubClients;
+import com.google.cloud.pubsub.client.core.RequestMetrics;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -25,13 +28,101 @@ public final class Main {
     /**
      * Pull batch size.
      */
-    static final int BATCH_SIZE = 1000;
+    static final int BATCH_SIZE = PubsubClients.BATCH_SIZE;
 
     /**
      * A name of environment variable for decide whether or not to loop.
      */
     static final String LOOP_ENV_NAME = "LOOP";
 
+    /**
+     * A name of environment variable for the number of concurrent pulls.
+     */
+    static final String CONCURRENCY_ENV_NAME = "CONCURRENCY";
+
+    /**
+     * A name of environment variable for the capacity of the worker queue.
+     */
+    static final String QUEUE_SIZE_ENV_NAME = "QUEUE_SIZE";
+
+    /**
+     * A name of environment variable for the max total extension in seconds
+     * of the ack deadline of a message.
+     */
+    static final String MAX_EXTENSION_ENV_NAME = "MAX_EXTENSION";
+
+    /**
+     * A name of environment variable for the number of handler threads.
+     */
+    static final String THREADS_ENV_NAME = "THREADS";
+
+    /**
+     * A name of environment variable for the attribute which orders the
+     * handling of messages.
+     */
+    static final String ORDERING_KEY_ENV_NAME = "ORDERING_KEY";
+
+    /**
+     * A name of environment variable for the size in megabytes after which
+     * a segment file is rolled.
+     */
+    static final String SEGMENT_SIZE_ENV_NAME = "SEGMENT_SIZE";
+
+    /**
+     * A name of environment variable for decide whether or not to gzip the
+     * segment files.
+     */
+    static final String GZIP_ENV_NAME = "GZIP";
+
+    /**
+     * A name of environment variable for the max number of messages pulled
+     * but not acknowledged yet.
+     */
+    static final String MAX_OUTSTANDING_ENV_NAME = "MAX_OUTSTANDING";
+
+    /**
+     * A name of environment variable for the max size in megabytes of the
+     * messages pulled but not acknowledged yet.
+     */
+    static final String MAX_OUTSTANDING_MB_ENV_NAME = "MAX_OUTSTANDING_MB";
+
+    /**
+     * A name of environment variable for the number of messages published
+     * per second by loadtest.
+     */
+    static final String RATE_ENV_NAME = "RATE";
+
+    /**
+     * A name of environment variable for the size in bytes of the messages
+     * published by loadtest.
+     */
+    static final String PAYLOAD_SIZE_ENV_NAME = "PAYLOAD_SIZE";
+
+    /**
+     * A name of environment variable for the root URL of the Cloud Pub/Sub
+     * API.
+     */
+    static final String ENDPOINT_ENV_NAME = "PUBSUB_ENDPOINT";
+
+    /**
+     * A name of environment variable for the max number of connections to
+     * the Cloud Pub/Sub API.
+     */
+    static final String MAX_CONNECTIONS_ENV_NAME =
+            HttpTransports.MAX_CONNECTIONS_PROPERTY;
+
+    /**
+     * A name of environment variable for the period in seconds at which
+     * the request metrics are logged.
+     */
+    static final String METRICS_INTERVAL_ENV_NAME = "METRICS_INTERVAL";
+
+    /**
+     * A name of environment variable for the percentile of the publish
+     * latency after which publish_message hedges a call.
+     */
+    static final String HEDGE_PERCENTILE_ENV_NAME = "HEDGE_PERCENTILE";
+
     /**
      * Options for parser.
      */
@@ -41,7 +132,50 @@ public final class Main {
         options = new Options();
         options.addOption("l", "loop", false,
                 "Loop forever for pulling when specified");
-
+        options.addOption("c", "concurrency", true,
+                "Number of pull requests kept in flight in the loop mode "
+                + "and drain_to_file, or of publish requests in "
+                + "publish_file; both in loadtest");
+        options.addOption("q", "queue_size", true,
+                "Number of pulled messages buffered for the workers in the "
+                + "loop mode");
+        options.addOption("x", "max_extension", true,
+                "Max seconds the ack deadline of a slow message is extended "
+                + "in the loop mode");
+        options.addOption("t", "threads", true,
+                "Number of threads handling messages in the loop mode");
+        options.addOption("k", "ordering_key", true,
+                "Attribute whose value keeps messages in order in the loop "
+                + "mode");
+        options.addOption("m", "max_outstanding", true,
+                "Max number of messages pulled but not acknowledged yet in "
+                + "the loop mode");
+        options.addOption("b", "max_outstanding_mb", true,
+                "Max megabytes of messages pulled but not acknowledged yet "
+                + "in the loop mode");
+        options.addOption("s", "segment_size", true,
+                "Size in megabytes after which drain_to_file starts a new "
+                + "file");
+        options.addOption("z", "gzip", false,
+                "Compress the files written by drain_to_file");
+        options.addOption("r", "rate", true,
+                "Messages published per second by loadtest, as fast as "
+                + "possible by default");
+        options.addOption("p", "payload_size", true,
+                "Size in bytes of the messages published by loadtest");
+        options.addOption("e", "endpoint", true,
+                "Root URL of the Cloud Pub/Sub API, e.g. a local emulator, "
+                + "or 'fake' for an in-process fake; no credentials are "
+                + "sent to it");
+        options.addOption("n", "max_connections", true,
+                "Max number of connections to the Cloud Pub/Sub API, shared "
+                + "by all the requests");
+        options.addOption("i", "metrics_interval", true,
+                "Log the latency, status codes and retries of the requests "
+                + "to each API method every given number of seconds");
+        options.addOption("g", "hedge_percentile", true,
+                "Send a second publish call when the first one is slower "
+                + "than this percentile of the recent calls");
     }
 
     /**
@@ -68,6 +202,16 @@ public final class Main {
                 TopicMethods.publishMessage(client, args);
             }
         },
+        /**
+         * Action for publishing the records of a file to a topic.
+         */
+        publish_file {
+            @Override
+            void run(final Pubsub client, final String[] args)
+                    throws IOException {
+                TopicMethods.publishFile(client, args);
+            }
+        },
         /**
          * Action for connecting to an IRC channel and publishing messages to a
          * topic.
@@ -119,6 +263,27 @@ public final class Main {
                 SubscriptionMethods.pullMessages(client, args);
             }
         },
+        /**
+         * Action for writing all the messages of a subscription to files.
+         */
+        drain_to_file {
+            @Override
+            void run(final Pubsub client, final String[] args)
+                    throws IOException {
+                SubscriptionMethods.drainToFile(client, args);
+            }
+        },
+        /**
+         * Action for measuring the throughput and latency of a topic and
+         * one of its subscriptions.
+         */
+        loadtest {
+            @Override
+            void run(final Pubsub client, final String[] args)
+                    throws IOException {
+                TopicMethods.loadTest(client, args);
+            }
+        },
         /**
          * Action for listing subscriptions in a project.
          */
@@ -163,6 +328,27 @@ public final class Main {
         }
     }
 
+    /**
+     * Returns the integer value of the given system property.
+     *
+     * @param name Name of the system property.
+     * @param defaultValue Value to use when the property is not set.
+     * @return the value of the property, or defaultValue.
+     * @throws IllegalArgumentException when the value is not an integer.
+     */
+    static int getIntProperty(final String name, final int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "Invalid value for " + name + ": " + value, e);
+        }
+    }
+
     /**
      * Prints out the usage to stderr.
      */
@@ -180,8 +366,12 @@ public final class Main {
                         + "[PUSH_ENDPOINT]\n"
                         + "PROJ delete_subscription SUBSCRIPTION\n"
                         + "PROJ connect_irc TOPIC SERVER CHANNEL\n"
-                        + "PROJ publish_message TOPIC MESSAGE\n"
+                        + "PROJ publish_message TOPIC MESSAGE [MESSAGE...]\n"
+                        + "PROJ publish_file TOPIC FILE "
+                        + "[newline|length_prefixed]\n"
                         + "PROJ pull_messages SUBSCRIPTION\n"
+                        + "PROJ drain_to_file SUBSCRIPTION DIRECTORY\n"
+                        + "PROJ loadtest TOPIC SUBSCRIPTION [MESSAGES]\n"
         );
         writer.close();
     }
@@ -200,8 +390,71 @@ public final class Main {
         if (cmd.hasOption("loop")) {
             System.setProperty(LOOP_ENV_NAME, "loop");
         }
+        if (cmd.hasOption("concurrency")) {
+            System.setProperty(CONCURRENCY_ENV_NAME,
+                    cmd.getOptionValue("concurrency"));
+        }
+        if (cmd.hasOption("queue_size")) {
+            System.setProperty(QUEUE_SIZE_ENV_NAME,
+                    cmd.getOptionValue("queue_size"));
+        }
+        if (cmd.hasOption("max_extension")) {
+            System.setProperty(MAX_EXTENSION_ENV_NAME,
+                    cmd.getOptionValue("max_extension"));
+        }
+        if (cmd.hasOption("threads")) {
+            System.setProperty(THREADS_ENV_NAME,
+                    cmd.getOptionValue("threads"));
+        }
+        if (cmd.hasOption("ordering_key")) {
+            System.setProperty(ORDERING_KEY_ENV_NAME,
+                    cmd.getOptionValue("ordering_key"));
+        }
+        if (cmd.hasOption("max_outstanding")) {
+            System.setProperty(MAX_OUTSTANDING_ENV_NAME,
+                    cmd.getOptionValue("max_outstanding"));
+        }
+        if (cmd.hasOption("max_outstanding_mb")) {
+            System.setProperty(MAX_OUTSTANDING_MB_ENV_NAME,
+                    cmd.getOptionValue("max_outstanding_mb"));
+        }
+        if (cmd.hasOption("segment_size")) {
+            System.setProperty(SEGMENT_SIZE_ENV_NAME,
+                    cmd.getOptionValue("segment_size"));
+        }
+        if (cmd.hasOption("gzip")) {
+            System.setProperty(GZIP_ENV_NAME, "gzip");
+        }
+        if (cmd.hasOption("rate")) {
+            System.setProperty(RATE_ENV_NAME, cmd.getOptionValue("rate"));
+        }
+        if (cmd.hasOption("payload_size")) {
+            System.setProperty(PAYLOAD_SIZE_ENV_NAME,
+                    cmd.getOptionValue("payload_size"));
+        }
+        if (cmd.hasOption("endpoint")) {
+            System.setProperty(ENDPOINT_ENV_NAME,
+                    cmd.getOptionValue("endpoint"));
+        }
+        if (cmd.hasOption("max_connections")) {
+            System.setProperty(MAX_CONNECTIONS_ENV_NAME,
+                    cmd.getOptionValue("max_connections"));
+        }
+        if (cmd.hasOption("metrics_interval")) {
+            System.setProperty(METRICS_INTERVAL_ENV_NAME,
+                    cmd.getOptionValue("metrics_interval"));
+        }
+        if (cmd.hasOption("hedge_percentile")) {
+            System.setProperty(HEDGE_PERCENTILE_ENV_NAME,
+                    cmd.getOptionValue("hedge_percentile"));
+        }
         Pubsub client = PubsubUtils.getClient();
         try {
+            if (cmd.hasOption("metrics_interval")) {
+                RequestMetrics.getDefault().startReporting(
+                        RequestMetrics.LOGGING_REPORTER,
+                        getIntProperty(METRICS_INTERVAL_ENV_NAME, 0));
+            }
             CmdLineOperation cmdLineOperation =
                     CmdLineOperation.valueOf(cmdArgs[1]);
             cmdLineOperation.run(client, cmdArgs);
@@ -209,6 +462,9 @@ public final class Main {
             e.printStackTrace();
             System.exit(1);
         } catch (IllegalArgumentException e) {
+            if (e.getMessage() != null) {
+                System.err.println(e.getMessage());
+            }
             help();
             System.exit(1);
         }
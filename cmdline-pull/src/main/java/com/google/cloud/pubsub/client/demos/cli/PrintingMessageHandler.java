@@ -0,0 +1,26 @@
+package com.google.cloud.pubsub.client.demos.cli;
+
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.cloud.pubsub.client.core.MessageHandler;
+
+import java.io.IOException;
+
+/**
+ * MessageHandler which prints the payload of messages to stdout.
+ */
+public final class PrintingMessageHandler implements MessageHandler {
+
+    /**
+     * Prints the payload of the message as a UTF-8 string.
+     *
+     * @param message The message to print.
+     * @throws IOException when the payload can not be decoded.
+     */
+    @Override
+    public void handle(final PubsubMessage message) throws IOException {
+        byte[] data = message.decodeData();
+        if (data != null) {
+            System.out.println(new String(data, "UTF-8"));
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package com.google.cloud.pubsub.client.demos.cli;
 
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.api.client.googleapis.util.Utils;
-import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.Clock;
 import com.google.api.services.pubsub.Pubsub;
-import com.google.api.services.pubsub.PubsubScopes;
+import com.google.cloud.pubsub.client.core.BatchingPublisher;
+import com.google.cloud.pubsub.client.core.FakePubsubTransport;
+import com.google.cloud.pubsub.client.core.HedgedPublisher;
+import com.google.cloud.pubsub.client.core.HttpTransports;
+import com.google.cloud.pubsub.client.core.PubsubClients;
 import com.google.common.base.Preconditions;
 
 import java.io.IOException;
@@ -21,6 +24,18 @@ public final class PubsubUtils {
      */
     private static final String APP_NAME = "cloud-pubsub-sample-cli/1.0";
 
+    /**
+     * Endpoint which selects an in-process {@link FakePubsubTransport}.
+     */
+    static final String FAKE_ENDPOINT = "fake";
+
+    /**
+     * The hedged publisher shared by all the publishers of the process, so
+     * that its delay follows the latency of all their calls; guarded by
+     * the class.
+     */
+    private static HedgedPublisher hedgedPublisher;
+
     /**
      * Prevents instantiation.
      */
@@ -77,19 +92,22 @@ public final class PubsubUtils {
     }
 
     /**
-     * Builds a new Pubsub client with default HttpTransport and
-     * JsonFactory and returns it.
+     * Builds a new Pubsub client with the shared HttpTransport and the
+     * default JsonFactory and returns it.
      *
      * @return Pubsub client.
      * @throws IOException when we can not get the default credentials.
+     * @see HttpTransports#getSharedTransport()
      */
     public static Pubsub getClient() throws IOException {
-        return getClient(Utils.getDefaultTransport(),
+        return getClient(HttpTransports.getSharedTransport(),
                          Utils.getDefaultJsonFactory());
     }
 
     /**
-     * Builds a new Pubsub client and returns it.
+     * Builds a new Pubsub client and returns it. A
+     * {@link FakePubsubTransport}, or the "fake" endpoint, gets a client of
+     * an in-process fake which needs no credentials.
      *
      * @param httpTransport HttpTransport for Pubsub client.
      * @param jsonFactory JsonFactory for Pubsub client.
@@ -101,17 +119,59 @@ public final class PubsubUtils {
              throws IOException {
         Preconditions.checkNotNull(httpTransport);
         Preconditions.checkNotNull(jsonFactory);
-        GoogleCredential credential =
-            GoogleCredential.getApplicationDefault(httpTransport, jsonFactory);
-        if (credential.createScopedRequired()) {
-            credential = credential.createScoped(PubsubScopes.all());
+        if (httpTransport instanceof FakePubsubTransport) {
+            return PubsubClients.getClient(httpTransport, jsonFactory,
+                    Pubsub.DEFAULT_ROOT_URL, APP_NAME);
+        }
+        String endpoint = System.getProperty(Main.ENDPOINT_ENV_NAME);
+        if (FAKE_ENDPOINT.equals(endpoint)) {
+            return PubsubClients.getClient(new FakePubsubTransport(
+                    jsonFactory, Clock.SYSTEM), jsonFactory,
+                    Pubsub.DEFAULT_ROOT_URL, APP_NAME);
+        } else if (endpoint != null) {
+            return PubsubClients.getClient(httpTransport, jsonFactory,
+                    endpoint, APP_NAME);
         }
-        // Please use custom HttpRequestInitializer for automatic
-        // retry upon failures.
-        HttpRequestInitializer initializer =
-            new RetryHttpInitializerWrapper(credential);
-        return new Pubsub.Builder(httpTransport, jsonFactory, initializer)
-                .setApplicationName(APP_NAME)
-                .build();
+        return PubsubClients.getClient(httpTransport, jsonFactory, APP_NAME);
+    }
+
+    /**
+     * Returns the hedged publisher of the process, building it on the
+     * first call, or null when --hedge_percentile is not set. It lives as
+     * long as the process, as its delay is a percentile of the latencies
+     * it has seen.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @return the shared hedged publisher, or null.
+     */
+    static synchronized HedgedPublisher getHedgedPublisher(
+            final Pubsub client) {
+        int percentile = Main.getIntProperty(Main.HEDGE_PERCENTILE_ENV_NAME,
+                0);
+        if (percentile <= 0) {
+            return null;
+        }
+        if (hedgedPublisher == null) {
+            hedgedPublisher = new HedgedPublisher(client, percentile,
+                    HedgedPublisher.DEFAULT_MAX_HEDGE_RATE);
+        }
+        return hedgedPublisher;
+    }
+
+    /**
+     * Builds a new batching publisher with the default limits, hedging its
+     * calls with the shared hedged publisher if any.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param threads Number of publish calls made at the same time.
+     * @return the publisher.
+     */
+    static BatchingPublisher newBatchingPublisher(final Pubsub client,
+                                                  final int threads) {
+        return new BatchingPublisher(client,
+                BatchingPublisher.MAX_MESSAGES_PER_REQUEST,
+                BatchingPublisher.MAX_REQUEST_BYTES,
+                BatchingPublisher.DEFAULT_LINGER_MILLIS, threads,
+                getHedgedPublisher(client));
     }
 }
@@ -0,0 +1,304 @@
+package com.google.cloud.pubsub.client.demos.cli;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes pulled messages into rolling segment files, one JSON object per
+ * line with the message id, publish time, attributes and base64 data as
+ * returned by the API.
+ *
+ * <p>A segment is written under a temporary name and renamed once it is
+ * complete. The ack ids of the messages written are handed to a
+ * {@link Listener} only after the segment has been synced to the disk, so
+ * that acknowledging them can't lose data.</p>
+ */
+public final class SegmentWriter implements Closeable {
+
+    /**
+     * Default size in bytes after which a segment is rolled, before
+     * compression.
+     */
+    static final long DEFAULT_MAX_SEGMENT_BYTES = 128L * 1024 * 1024;
+
+    /**
+     * Size of the write buffer.
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Suffix of the segment being written.
+     */
+    private static final String IN_PROGRESS_SUFFIX = ".inprogress";
+
+    /**
+     * Receives the ack ids of the messages which are safely on the disk.
+     */
+    public interface Listener {
+        /**
+         * Called after a sync, with the lock of the writer held.
+         *
+         * @param ackIds Ack ids of the messages synced since the last call.
+         */
+        void onSynced(List<String> ackIds);
+    }
+
+    /**
+     * Directory of the segment files.
+     */
+    private final Path directory;
+
+    /**
+     * Prefix of the segment file names.
+     */
+    private final String prefix;
+
+    /**
+     * Size in bytes after which a segment is rolled.
+     */
+    private final long maxSegmentBytes;
+
+    /**
+     * Whether the segments are gzipped.
+     */
+    private final boolean compress;
+
+    /**
+     * Serializes the messages.
+     */
+    private final JsonFactory jsonFactory;
+
+    /**
+     * Receives the ack ids of the synced messages.
+     */
+    private final Listener listener;
+
+    /**
+     * Ack ids of the messages written but not synced yet.
+     */
+    private List<String> pendingAckIds = new ArrayList<>();
+
+    /**
+     * Channel of the current segment, or null.
+     */
+    private FileChannel channel;
+
+    /**
+     * Buffered, possibly compressing, stream over the channel.
+     */
+    private OutputStream out;
+
+    /**
+     * Temporary path of the current segment.
+     */
+    private Path inProgressPath;
+
+    /**
+     * Final path of the current segment.
+     */
+    private Path segmentPath;
+
+    /**
+     * Bytes written to the current segment, before compression.
+     */
+    private long segmentBytes;
+
+    /**
+     * Number of segments started.
+     */
+    private int segmentCount;
+
+    /**
+     * Number of messages written.
+     */
+    private long messageCount;
+
+    /**
+     * A constructor.
+     *
+     * @param directory Directory of the segment files; created if needed.
+     * @param prefix Prefix of the segment file names.
+     * @param maxSegmentBytes Size in bytes after which a segment is rolled.
+     * @param compress Whether the segments are gzipped.
+     * @param jsonFactory Serializes the messages.
+     * @param listener Receives the ack ids of the synced messages.
+     * @throws IOException when the directory can't be created.
+     */
+    public SegmentWriter(final Path directory, final String prefix,
+                         final long maxSegmentBytes, final boolean compress,
+                         final JsonFactory jsonFactory,
+                         final Listener listener) throws IOException {
+        Preconditions.checkArgument(maxSegmentBytes > 0,
+                "max segment size must be positive");
+        this.directory = Files.createDirectories(directory);
+        this.prefix = Preconditions.checkNotNull(prefix);
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.compress = compress;
+        this.jsonFactory = Preconditions.checkNotNull(jsonFactory);
+        this.listener = Preconditions.checkNotNull(listener);
+    }
+
+    /**
+     * Appends messages to the current segment, rolling it when it is full.
+     *
+     * @param messages The pulled messages.
+     * @throws IOException when writing fails.
+     */
+    public synchronized void append(final List<ReceivedMessage> messages)
+            throws IOException {
+        for (ReceivedMessage message : messages) {
+            if (out == null) {
+                open();
+            }
+            PubsubMessage pubsubMessage = message.getMessage();
+            if (pubsubMessage != null) {
+                byte[] line = jsonFactory.toByteArray(pubsubMessage);
+                out.write(line);
+                out.write('\n');
+                segmentBytes += line.length + 1;
+                messageCount++;
+            }
+            pendingAckIds.add(message.getAckId());
+            if (segmentBytes >= maxSegmentBytes) {
+                roll();
+            }
+        }
+    }
+
+    /**
+     * Flushes the current segment to the disk and hands the ack ids of the
+     * messages written so far to the listener.
+     *
+     * @throws IOException when writing fails.
+     */
+    public synchronized void sync() throws IOException {
+        if (out == null) {
+            return;
+        }
+        // With a sync flush, the gzip stream emits all the data so far.
+        out.flush();
+        channel.force(false);
+        notifyListener();
+    }
+
+    /**
+     * Syncs and completes the current segment.
+     *
+     * @throws IOException when writing fails.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            roll();
+        }
+    }
+
+    /**
+     * Returns the number of segments started.
+     *
+     * @return the number of segments.
+     */
+    public synchronized int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Returns the number of messages written.
+     *
+     * @return the number of messages.
+     */
+    public synchronized long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Starts a new segment.
+     *
+     * @throws IOException when the file can't be created.
+     */
+    private void open() throws IOException {
+        segmentCount++;
+        String name = String.format(Locale.ENGLISH, "%s-%s-%05d.json%s",
+                prefix,
+                new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ENGLISH)
+                        .format(new Date()),
+                segmentCount, extension());
+        segmentPath = directory.resolve(name);
+        inProgressPath = directory.resolve(name + IN_PROGRESS_SUFFIX);
+        channel = FileChannel.open(inProgressPath, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE_NEW);
+        OutputStream stream = Channels.newOutputStream(channel);
+        if (compress) {
+            out = new GZIPOutputStream(stream, BUFFER_SIZE, true);
+        } else {
+            out = new BufferedOutputStream(stream, BUFFER_SIZE);
+        }
+        segmentBytes = 0;
+    }
+
+    /**
+     * Completes the current segment: syncs it and renames it to its final
+     * name.
+     *
+     * @throws IOException when writing fails.
+     */
+    private void roll() throws IOException {
+        try {
+            if (out instanceof GZIPOutputStream) {
+                // Writes the gzip trailer.
+                ((GZIPOutputStream) out).finish();
+            }
+            out.flush();
+            channel.force(true);
+        } finally {
+            out.close();
+            out = null;
+            channel = null;
+        }
+        Files.move(inProgressPath, segmentPath, StandardCopyOption.ATOMIC_MOVE);
+        notifyListener();
+    }
+
+    /**
+     * Hands the pending ack ids to the listener.
+     */
+    private void notifyListener() {
+        if (pendingAckIds.isEmpty()) {
+            return;
+        }
+        List<String> synced = pendingAckIds;
+        pendingAckIds = new ArrayList<>();
+        listener.onSynced(synced);
+    }
+
+    /**
+     * Returns the file name extension of the segments.
+     *
+     * @return the extension.
+     */
+    private String extension() {
+        if (compress) {
+            return ".gz";
+        }
+        return "";
+    }
+}
@@ -0,0 +1,284 @@
+package com.google.cloud.pubsub.client.demos.cli;
+
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.api.services.pubsub.model.PullResponse;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.api.services.pubsub.model.Subscription;
+import com.google.cloud.pubsub.client.core.AckBatcher;
+import com.google.cloud.pubsub.client.core.LeaseManager;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pulls all the messages of a subscription concurrently into a
+ * {@link SegmentWriter}, and acknowledges them once they are synced to the
+ * disk.
+ *
+ * <p>The writer is synced at a fixed interval, so the acknowledgements of
+ * many pulls share one fsync. The leases of the messages are extended
+ * until then by a {@link LeaseManager}, which also nacks the messages
+ * which could not be written.</p>
+ */
+public final class SubscriptionDrainer implements SegmentWriter.Listener {
+
+    /**
+     * A private logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(SubscriptionDrainer.class.getName());
+
+    /**
+     * Default number of pull requests kept in flight.
+     */
+    static final int DEFAULT_CONCURRENCY = 4;
+
+    /**
+     * Number of empty pulls in a row after which a puller stops.
+     */
+    private static final int MAX_EMPTY_PULLS = 3;
+
+    /**
+     * Time in milliseconds to wait after an empty pull.
+     */
+    private static final long EMPTY_PULL_BACKOFF_MILLIS = 1000;
+
+    /**
+     * Interval in milliseconds between two syncs of the writer.
+     */
+    private static final long SYNC_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Ack deadline used when the subscription doesn't tell its own.
+     */
+    private static final int DEFAULT_ACK_DEADLINE_SECONDS = 10;
+
+    /**
+     * Max time in milliseconds to wait for the drain to stop on exit.
+     */
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Cloud Pub/Sub client.
+     */
+    private final Pubsub client;
+
+    /**
+     * Fully qualified name of the subscription.
+     */
+    private final String subscriptionName;
+
+    /**
+     * Number of pull requests kept in flight.
+     */
+    private final int concurrency;
+
+    /**
+     * Acknowledges the synced messages.
+     */
+    private final AckBatcher ackBatcher;
+
+    /**
+     * Writes the messages; created by run().
+     */
+    private SegmentWriter writer;
+
+    /**
+     * Extends the leases of the messages not synced yet; created by run().
+     */
+    private LeaseManager leaseManager;
+
+    /**
+     * A constructor.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param subscriptionName Fully qualified name of the subscription.
+     * @param concurrency Number of pull requests kept in flight.
+     */
+    public SubscriptionDrainer(final Pubsub client,
+                               final String subscriptionName,
+                               final int concurrency) {
+        Preconditions.checkArgument(concurrency > 0,
+                "concurrency must be positive");
+        this.client = Preconditions.checkNotNull(client);
+        this.subscriptionName = Preconditions.checkNotNull(subscriptionName);
+        this.concurrency = concurrency;
+        this.ackBatcher = new AckBatcher(client, subscriptionName);
+    }
+
+    /**
+     * Pulls messages into the writer until the subscription is empty or
+     * the JVM shuts down, then closes the writer.
+     *
+     * @param segmentWriter Writes the messages; closed when done. Must use
+     * this drainer as its listener.
+     * @throws IOException when Cloud Pub/Sub API calls or writing fail.
+     */
+    public void run(final SegmentWriter segmentWriter) throws IOException {
+        this.writer = Preconditions.checkNotNull(segmentWriter);
+        Subscription subscription = client.projects().subscriptions()
+                .get(subscriptionName)
+                .execute();
+        int ackDeadlineSeconds = DEFAULT_ACK_DEADLINE_SECONDS;
+        if (subscription.getAckDeadlineSeconds() != null) {
+            ackDeadlineSeconds = subscription.getAckDeadlineSeconds();
+        }
+        leaseManager = new LeaseManager(client, subscriptionName,
+                ackDeadlineSeconds, LeaseManager.DEFAULT_MAX_EXTENSION_SECONDS);
+        final Thread runThread = Thread.currentThread();
+        Thread shutdownHook = new Thread() {
+            @Override
+            public void run() {
+                // Lets the drain complete the current segment.
+                runThread.interrupt();
+                try {
+                    runThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        ScheduledExecutorService syncer =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("segment-syncer-%d")
+                                .setDaemon(true)
+                                .build());
+        syncer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.sync();
+                } catch (IOException e) {
+                    // The messages are acked by a later sync, or nacked.
+                    LOG.log(Level.WARNING, "Failed to sync a segment", e);
+                }
+            }
+        }, SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                concurrency,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("subscription-drainer-%d")
+                        .setDaemon(true)
+                        .build());
+        CompletionService<Void> pullers =
+                new ExecutorCompletionService<>(executor);
+        for (int i = 0; i < concurrency; i++) {
+            pullers.submit(new Puller());
+        }
+        boolean interrupted = false;
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                pullers.take().get();
+            }
+        } catch (InterruptedException e) {
+            // Restored after the cleanup, which must not be cut short.
+            interrupted = true;
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            syncer.shutdownNow();
+            awaitTermination(executor);
+            awaitTermination(syncer);
+            // The acks of what the last roll synced are sent even if it
+            // fails, and whatever is left is nacked in any case.
+            try {
+                writer.close();
+            } finally {
+                try {
+                    ackBatcher.close();
+                } finally {
+                    leaseManager.close();
+                }
+            }
+            removeShutdownHook(shutdownHook);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void onSynced(final List<String> ackIds) {
+        for (String ackId : ackIds) {
+            leaseManager.remove(ackId);
+            ackBatcher.add(ackId);
+        }
+    }
+
+    /**
+     * Waits for the running tasks of a stopped executor, so that they
+     * don't write after the writer is closed.
+     *
+     * @param executor The executor.
+     */
+    private static void awaitTermination(final ExecutorService executor) {
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes the shutdown hook unless the JVM is already shutting down.
+     *
+     * @param shutdownHook The hook to remove.
+     */
+    private static void removeShutdownHook(final Thread shutdownHook) {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            LOG.fine("Shutting down");
+        }
+    }
+
+    /**
+     * Pulls messages into the writer until the subscription looks empty.
+     */
+    private final class Puller implements Callable<Void> {
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            PullRequest pullRequest = new PullRequest()
+                    .setReturnImmediately(true)
+                    .setMaxMessages(Main.BATCH_SIZE);
+            int emptyPulls = 0;
+            while (emptyPulls < MAX_EMPTY_PULLS
+                    && !Thread.currentThread().isInterrupted()) {
+                PullResponse pullResponse = client.projects().subscriptions()
+                        .pull(subscriptionName, pullRequest)
+                        .execute();
+                List<ReceivedMessage> receivedMessages =
+                        pullResponse.getReceivedMessages();
+                if (receivedMessages == null || receivedMessages.isEmpty()) {
+                    emptyPulls++;
+                    Thread.sleep(EMPTY_PULL_BACKOFF_MILLIS);
+                    continue;
+                }
+                emptyPulls = 0;
+                for (ReceivedMessage receivedMessage : receivedMessages) {
+                    leaseManager.add(receivedMessage.getAckId());
+                }
+                writer.append(receivedMessages);
+            }
+            return null;
+        }
+    }
+}
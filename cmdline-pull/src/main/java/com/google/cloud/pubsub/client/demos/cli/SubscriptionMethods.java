@@ -3,14 +3,19 @@ package com.google.cloud.pubsub.client.demos.cli;
 import com.google.api.services.pubsub.Pubsub;
 import com.google.api.services.pubsub.model.AcknowledgeRequest;
 import com.google.api.services.pubsub.model.ListSubscriptionsResponse;
-import com.google.api.services.pubsub.model.PubsubMessage;
 import com.google.api.services.pubsub.model.PullRequest;
-import com.google.api.services.pubsub.model.PullResponse;
 import com.google.api.services.pubsub.model.PushConfig;
-import com.google.api.services.pubsub.model.ReceivedMessage;
 import com.google.api.services.pubsub.model.Subscription;
+import com.google.cloud.pubsub.client.core.FlowController;
+import com.google.cloud.pubsub.client.core.LeaseManager;
+import com.google.cloud.pubsub.client.core.MessageDispatcher;
+import com.google.cloud.pubsub.client.core.PipelinedPuller;
+import com.google.cloud.pubsub.client.core.PullResponseReader;
+import com.google.common.base.Charsets;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,6 +24,11 @@ import java.util.List;
  */
 public final class SubscriptionMethods {
 
+    /**
+     * Number of bytes in a megabyte.
+     */
+    private static final long MEGABYTE = 1024 * 1024;
+
     /**
      * Prevents instantiation.
      */
@@ -54,7 +64,8 @@ public final class SubscriptionMethods {
     }
 
     /**
-     * Keeps pulling messages from the given subscription.
+     * Pulls messages from the given subscription. In the loop mode, keeps
+     * pulling them with a {@link PipelinedPuller}.
      *
      * @param client Cloud Pub/Sub client.
      * @param args Arguments as an array of String.
@@ -65,37 +76,85 @@ public final class SubscriptionMethods {
         Main.checkArgsLength(args, 3);
         String subscriptionName = PubsubUtils.getFullyQualifiedResourceName(
                 PubsubUtils.ResourceType.SUBSCRIPTION, args[0], args[2]);
+        if (System.getProperty(Main.LOOP_ENV_NAME) != null) {
+            long maxOutstandingBytes =
+                    FlowController.DEFAULT_MAX_OUTSTANDING_BYTES;
+            if (System.getProperty(Main.MAX_OUTSTANDING_MB_ENV_NAME) != null) {
+                maxOutstandingBytes = Main.getIntProperty(
+                        Main.MAX_OUTSTANDING_MB_ENV_NAME, 0) * MEGABYTE;
+            }
+            FlowController flowController = new FlowController(
+                    Main.getIntProperty(Main.MAX_OUTSTANDING_ENV_NAME,
+                            FlowController.DEFAULT_MAX_OUTSTANDING_MESSAGES),
+                    maxOutstandingBytes);
+            MessageDispatcher dispatcher = new MessageDispatcher(
+                    new PrintingMessageHandler(),
+                    Main.getIntProperty(Main.THREADS_ENV_NAME,
+                            Runtime.getRuntime().availableProcessors()),
+                    Main.getIntProperty(Main.QUEUE_SIZE_ENV_NAME,
+                            MessageDispatcher.DEFAULT_QUEUE_SIZE),
+                    System.getProperty(Main.ORDERING_KEY_ENV_NAME));
+            new PipelinedPuller(client, subscriptionName, dispatcher,
+                    Main.getIntProperty(Main.CONCURRENCY_ENV_NAME,
+                            PipelinedPuller.DEFAULT_CONCURRENCY),
+                    Main.getIntProperty(Main.MAX_EXTENSION_ENV_NAME,
+                            LeaseManager.DEFAULT_MAX_EXTENSION_SECONDS),
+                    flowController)
+                    .run();
+            return;
+        }
         PullRequest pullRequest = new PullRequest()
                 .setReturnImmediately(false)
                 .setMaxMessages(Main.BATCH_SIZE);
 
-        do {
-            PullResponse pullResponse;
-            pullResponse = client.projects().subscriptions()
-                    .pull(subscriptionName, pullRequest)
-                    .execute();
-            List<String> ackIds = new ArrayList<>(Main.BATCH_SIZE);
-            List<ReceivedMessage> receivedMessages =
-                    pullResponse.getReceivedMessages();
-            if (receivedMessages != null) {
-                for (ReceivedMessage receivedMessage : receivedMessages) {
-                    PubsubMessage pubsubMessage =
-                            receivedMessage.getMessage();
-                    if (pubsubMessage != null
-                            && pubsubMessage.decodeData() != null) {
-                        System.out.println(
-                                new String(pubsubMessage.decodeData(),
-                                        "UTF-8"));
-                    }
-                    ackIds.add(receivedMessage.getAckId());
+        List<String> ackIds = new ArrayList<>(Main.BATCH_SIZE);
+        try (PullResponseReader reader = PullResponseReader.pull(client,
+                subscriptionName, pullRequest)) {
+            while (reader.next()) {
+                ByteBuffer data = reader.getData();
+                if (data != null) {
+                    System.out.println(Charsets.UTF_8.decode(data));
                 }
-                AcknowledgeRequest ackRequest = new AcknowledgeRequest();
-                ackRequest.setAckIds(ackIds);
-                client.projects().subscriptions()
-                        .acknowledge(subscriptionName, ackRequest)
-                        .execute();
+                ackIds.add(reader.getAckId());
             }
-        } while (System.getProperty(Main.LOOP_ENV_NAME) != null);
+        }
+        if (!ackIds.isEmpty()) {
+            AcknowledgeRequest ackRequest = new AcknowledgeRequest();
+            ackRequest.setAckIds(ackIds);
+            client.projects().subscriptions()
+                    .acknowledge(subscriptionName, ackRequest)
+                    .execute();
+        }
+    }
+
+    /**
+     * Pulls all the messages of the given subscription into segment files
+     * in the given directory, and acknowledges them once they are synced.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param args Arguments as an array of String.
+     * @throws IOException when Cloud Pub/Sub API calls or writing fail.
+     */
+    public static void drainToFile(final Pubsub client, final String[] args)
+            throws IOException {
+        Main.checkArgsLength(args, 4);
+        String subscriptionName = PubsubUtils.getFullyQualifiedResourceName(
+                PubsubUtils.ResourceType.SUBSCRIPTION, args[0], args[2]);
+        long maxSegmentBytes = SegmentWriter.DEFAULT_MAX_SEGMENT_BYTES;
+        if (System.getProperty(Main.SEGMENT_SIZE_ENV_NAME) != null) {
+            maxSegmentBytes = Main.getIntProperty(Main.SEGMENT_SIZE_ENV_NAME, 0)
+                    * MEGABYTE;
+        }
+        SubscriptionDrainer drainer = new SubscriptionDrainer(client,
+                subscriptionName,
+                Main.getIntProperty(Main.CONCURRENCY_ENV_NAME,
+                        SubscriptionDrainer.DEFAULT_CONCURRENCY));
+        SegmentWriter writer = new SegmentWriter(Paths.get(args[3]), args[2],
+                maxSegmentBytes, System.getProperty(Main.GZIP_ENV_NAME) != null,
+                client.getJsonFactory(), drainer);
+        drainer.run(writer);
+        System.out.printf("Drained %d messages into %d segments in %s.\n",
+                writer.getMessageCount(), writer.getSegmentCount(), args[3]);
     }
 
     /**
@@ -2,11 +2,15 @@ package com.google.cloud.pubsub.client.demos.cli;
 
 import com.google.api.services.pubsub.Pubsub;
 import com.google.api.services.pubsub.model.ListTopicsResponse;
-import com.google.api.services.pubsub.model.PublishRequest;
-import com.google.api.services.pubsub.model.PublishResponse;
 import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.Subscription;
 import com.google.api.services.pubsub.model.Topic;
-import com.google.common.collect.ImmutableList;
+import com.google.cloud.pubsub.client.core.BatchingPublisher;
+import com.google.cloud.pubsub.client.core.FakePubsubTransport;
+import com.google.cloud.pubsub.client.core.HedgedPublisher;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -14,7 +18,10 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,6 +46,21 @@ public final class TopicMethods {
      */
     private static final int PORT = 6667;
 
+    /**
+     * Reports messages which failed to be published.
+     */
+    private static final FutureCallback<String> REPORT_FAILURE =
+            new FutureCallback<String>() {
+                @Override
+                public void onSuccess(final String messageId) {
+                }
+
+                @Override
+                public void onFailure(final Throwable t) {
+                    System.err.println("Failed to publish a message: " + t);
+                }
+            };
+
     /**
      * Creates a new topic with a given name.
      *
@@ -96,6 +118,34 @@ public final class TopicMethods {
         writer.write(String.format("JOIN %s\r\n", channel));
         writer.flush();
 
+        BatchingPublisher publisher = PubsubUtils.newBatchingPublisher(
+                client, BatchingPublisher.DEFAULT_THREADS);
+        try {
+            relayIrcMessages(publisher, topic, channel, reader, writer);
+        } finally {
+            publisher.close();
+        }
+    }
+
+    /**
+     * Publishes the chat messages of an IRC channel until the connection
+     * is closed.
+     *
+     * @param publisher Publisher for the chat messages.
+     * @param topic Fully qualified name of the topic.
+     * @param channel Name of the IRC channel.
+     * @param reader Reader of the IRC connection.
+     * @param writer Writer of the IRC connection.
+     * @throws IOException when the IRC connection fails.
+     */
+    private static void relayIrcMessages(final BatchingPublisher publisher,
+                                         final String topic,
+                                         final String channel,
+                                         final BufferedReader reader,
+                                         final BufferedWriter writer)
+            throws IOException {
+        String line;
+
         // A regex pattern for Wikipedia change log as of June 4, 2014
         Pattern pat = Pattern.compile(
                 "\\u000314\\[\\[\\u000307(.*)\\u000314\\]\\]\\u0003.*"
@@ -123,18 +173,14 @@ public final class TopicMethods {
                 } else {
                     pubsubMessage.encodeData(line.getBytes("UTF-8"));
                 }
-                List<PubsubMessage> messages = ImmutableList.of(pubsubMessage);
-                PublishRequest publishRequest = new PublishRequest();
-                publishRequest.setMessages(messages);
-                client.projects().topics()
-                        .publish(topic, publishRequest)
-                        .execute();
+                Futures.addCallback(publisher.publish(topic, pubsubMessage),
+                        REPORT_FAILURE);
             }
         }
     }
 
     /**
-     * Publishes the given message to the given topic.
+     * Publishes the given messages to the given topic.
      *
      * @param client Cloud Pub/Sub client.
      * @param args Command line arguments.
@@ -145,21 +191,103 @@ public final class TopicMethods {
         Main.checkArgsLength(args, 4);
         String topic = PubsubUtils.getFullyQualifiedResourceName(
                 PubsubUtils.ResourceType.TOPIC, args[0], args[2]);
-        String message = args[3];
-        PubsubMessage pubsubMessage = new PubsubMessage()
-                .encodeData(message.getBytes("UTF-8"));
-        List<PubsubMessage> messages = ImmutableList.of(pubsubMessage);
-        PublishRequest publishRequest = new PublishRequest();
-        publishRequest.setMessages(messages);
-        PublishResponse publishResponse = client.projects().topics()
-                .publish(topic, publishRequest)
-                .execute();
-        List<String> messageIds = publishResponse.getMessageIds();
-        if (messageIds != null) {
-            for (String messageId : messageIds) {
-                System.out.println("Published with a message id: " + messageId);
+        List<ListenableFuture<String>> futures = new ArrayList<>();
+        BatchingPublisher publisher = PubsubUtils.newBatchingPublisher(
+                client, BatchingPublisher.DEFAULT_THREADS);
+        try {
+            for (int i = 3; i < args.length; i++) {
+                PubsubMessage pubsubMessage = new PubsubMessage()
+                        .encodeData(args[i].getBytes("UTF-8"));
+                futures.add(publisher.publish(topic, pubsubMessage));
             }
+        } finally {
+            publisher.close();
+            printHedgeSummary(client);
+        }
+        for (ListenableFuture<String> future : futures) {
+            String messageId = Futures.get(future, IOException.class);
+            System.out.println("Published with a message id: " + messageId);
+        }
+    }
+
+    /**
+     * Publishes every record of a file to the given topic.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param args Command line arguments.
+     * @throws IOException when the file can't be read or Cloud Pub/Sub API
+     * calls fail.
+     */
+    public static void publishFile(final Pubsub client, final String[] args)
+            throws IOException {
+        Main.checkArgsLength(args, 4);
+        String topic = PubsubUtils.getFullyQualifiedResourceName(
+                PubsubUtils.ResourceType.TOPIC, args[0], args[2]);
+        FilePublisher.Format format = FilePublisher.Format.NEWLINE;
+        if (args.length > 4) {
+            format = FilePublisher.Format.valueOf(
+                    args[4].toUpperCase(Locale.ENGLISH));
+        }
+        BatchingPublisher publisher = PubsubUtils.newBatchingPublisher(
+                client, Main.getIntProperty(Main.CONCURRENCY_ENV_NAME,
+                        FilePublisher.DEFAULT_CONCURRENCY));
+        FilePublisher filePublisher = new FilePublisher(publisher, topic,
+                FilePublisher.DEFAULT_MAX_OUTSTANDING_BYTES);
+        try {
+            filePublisher.publish(Paths.get(args[3]), format);
+        } finally {
+            publisher.close();
+            System.out.println(filePublisher.getSummary());
+            printHedgeSummary(client);
+        }
+    }
+
+    /**
+     * Prints the summary of the hedges, if the calls are hedged.
+     *
+     * @param client Cloud Pub/Sub client.
+     */
+    static void printHedgeSummary(final Pubsub client) {
+        HedgedPublisher hedgedPublisher =
+                PubsubUtils.getHedgedPublisher(client);
+        if (hedgedPublisher != null) {
+            System.out.println(hedgedPublisher.getSummary());
+        }
+    }
+
+    /**
+     * Publishes synthetic messages to the given topic while pulling them
+     * from the given subscription, and reports the throughput and latency.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param args Command line arguments.
+     * @throws IOException when Cloud Pub/Sub API calls fail.
+     */
+    public static void loadTest(final Pubsub client, final String[] args)
+            throws IOException {
+        Main.checkArgsLength(args, 4);
+        String topic = PubsubUtils.getFullyQualifiedResourceName(
+                PubsubUtils.ResourceType.TOPIC, args[0], args[2]);
+        String subscriptionName = PubsubUtils.getFullyQualifiedResourceName(
+                PubsubUtils.ResourceType.SUBSCRIPTION, args[0], args[3]);
+        int messageCount = LoadTest.DEFAULT_MESSAGE_COUNT;
+        if (args.length > 4) {
+            messageCount = Integer.parseInt(args[4]);
+        }
+        if (client.getRequestFactory().getTransport()
+                instanceof FakePubsubTransport) {
+            // An in-process fake starts empty.
+            client.projects().topics().create(topic, new Topic()).execute();
+            client.projects().subscriptions().create(subscriptionName,
+                    new Subscription().setTopic(topic)).execute();
         }
+        new LoadTest(client, topic, subscriptionName, messageCount,
+                Main.getIntProperty(Main.PAYLOAD_SIZE_ENV_NAME,
+                        LoadTest.DEFAULT_PAYLOAD_SIZE),
+                Main.getIntProperty(Main.RATE_ENV_NAME, 0),
+                Main.getIntProperty(Main.CONCURRENCY_ENV_NAME,
+                        LoadTest.DEFAULT_CONCURRENCY))
+                .run();
     }
 
     /**
@@ -0,0 +1,153 @@
+package com.google.cloud.pubsub.client.demos.cli;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Clock;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.api.services.pubsub.model.Subscription;
+import com.google.api.services.pubsub.model.Topic;
+import com.google.cloud.pubsub.client.core.BatchingPublisher;
+import com.google.cloud.pubsub.client.core.FakePubsubTransport;
+import com.google.cloud.pubsub.client.core.PubsubClients;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FilePublisherTest {
+
+    private static final String TOPIC = "projects/test/topics/t";
+
+    private static final String SUBSCRIPTION =
+            "projects/test/subscriptions/s";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+    private Pubsub client;
+
+    private BatchingPublisher batchingPublisher;
+
+    private FilePublisher filePublisher;
+
+    @Before
+    public void setUp() throws Exception {
+        client = PubsubClients.getClient(
+                new FakePubsubTransport(jsonFactory, Clock.SYSTEM),
+                jsonFactory, "http://fake", "test");
+        client.projects().topics().create(TOPIC, new Topic()).execute();
+        client.projects().subscriptions().create(SUBSCRIPTION,
+                new Subscription().setTopic(TOPIC)).execute();
+        batchingPublisher = new BatchingPublisher(client);
+        filePublisher = new FilePublisher(batchingPublisher, TOPIC,
+                FilePublisher.DEFAULT_MAX_OUTSTANDING_BYTES);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        batchingPublisher.close();
+    }
+
+    private List<byte[]> pullPayloads() throws Exception {
+        List<byte[]> payloads = new ArrayList<>();
+        while (true) {
+            List<ReceivedMessage> messages = client.projects().subscriptions()
+                    .pull(SUBSCRIPTION, new PullRequest()
+                            .setReturnImmediately(true)
+                            .setMaxMessages(100))
+                    .execute()
+                    .getReceivedMessages();
+            if (messages == null) {
+                return payloads;
+            }
+            for (ReceivedMessage message : messages) {
+                payloads.add(message.getMessage().decodeData());
+            }
+        }
+    }
+
+    private File writeLengthPrefixed(byte[]... records) throws Exception {
+        File file = folder.newFile();
+        try (DataOutputStream out =
+                     new DataOutputStream(new FileOutputStream(file))) {
+            for (byte[] record : records) {
+                out.writeInt(record.length);
+                out.write(record);
+            }
+        }
+        return file;
+    }
+
+    private static byte[] record(int length) {
+        byte[] record = new byte[length];
+        for (int i = 0; i < length; i++) {
+            record[i] = (byte) i;
+        }
+        return record;
+    }
+
+    @Test
+    public void testPublishesLines() throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(),
+                "one\ntwo\r\n\nthree".getBytes("UTF-8"));
+        filePublisher.publish(file.toPath(), FilePublisher.Format.NEWLINE);
+
+        List<String> payloads = new ArrayList<>();
+        for (byte[] payload : pullPayloads()) {
+            payloads.add(new String(payload, "UTF-8"));
+        }
+        assertEquals(3, payloads.size());
+        assertTrue(payloads.containsAll(Arrays.asList("one", "two", "three")));
+        assertTrue(filePublisher.getSummary().startsWith(
+                "Published 3 messages (11 bytes)"));
+    }
+
+    @Test
+    public void testPublishesLengthPrefixedRecords() throws Exception {
+        byte[] small = record(10);
+        byte[] largest = record(BatchingPublisher.MAX_DATA_BYTES);
+        File file = writeLengthPrefixed(small, largest);
+        filePublisher.publish(file.toPath(),
+                FilePublisher.Format.LENGTH_PREFIXED);
+
+        List<byte[]> payloads = pullPayloads();
+        assertEquals(2, payloads.size());
+        if (payloads.get(0).length != small.length) {
+            payloads.add(payloads.remove(0));
+        }
+        assertArrayEquals(small, payloads.get(0));
+        assertArrayEquals(largest, payloads.get(1));
+    }
+
+    @Test
+    public void testRejectsARecordOverTheMax() throws Exception {
+        File file = writeLengthPrefixed(
+                record(BatchingPublisher.MAX_DATA_BYTES + 1));
+        try {
+            filePublisher.publish(file.toPath(),
+                    FilePublisher.Format.LENGTH_PREFIXED);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("larger than the max"));
+        }
+        assertTrue(pullPayloads().isEmpty());
+    }
+}
@@ -0,0 +1,98 @@
+package com.google.cloud.pubsub.client.demos.cli;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class SegmentWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> synced = new ArrayList<>();
+
+    private final SegmentWriter.Listener listener =
+            new SegmentWriter.Listener() {
+                @Override
+                public void onSynced(List<String> ackIds) {
+                    synced.addAll(ackIds);
+                }
+            };
+
+    private static List<ReceivedMessage> messages(int from, int to) {
+        List<ReceivedMessage> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            PubsubMessage pubsubMessage = new PubsubMessage()
+                    .setMessageId(Integer.toString(i))
+                    .setPublishTime("2015-01-01T00:00:00Z")
+                    .setAttributes(ImmutableMap.of("seq", Integer.toString(i)))
+                    .encodeData(("payload " + i).getBytes());
+            messages.add(new ReceivedMessage()
+                    .setAckId("ack-" + i)
+                    .setMessage(pubsubMessage));
+        }
+        return messages;
+    }
+
+    @Test
+    public void testAcksOnlyAfterSync() throws Exception {
+        SegmentWriter writer = new SegmentWriter(folder.getRoot().toPath(),
+                "sub", SegmentWriter.DEFAULT_MAX_SEGMENT_BYTES, false,
+                JacksonFactory.getDefaultInstance(), listener);
+        writer.append(messages(0, 3));
+        assertTrue(synced.isEmpty());
+        writer.sync();
+        assertEquals(Arrays.asList("ack-0", "ack-1", "ack-2"), synced);
+        writer.append(messages(3, 4));
+        writer.close();
+        assertEquals(4, synced.size());
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        assertFalse(files[0].getName().endsWith(".inprogress"));
+    }
+
+    @Test
+    public void testRollsCompressedSegments() throws Exception {
+        SegmentWriter writer = new SegmentWriter(folder.getRoot().toPath(),
+                "sub", 1, true, JacksonFactory.getDefaultInstance(), listener);
+        writer.append(messages(0, 3));
+        writer.close();
+        assertEquals(3, writer.getSegmentCount());
+        assertEquals(3, synced.size());
+        File[] files = folder.getRoot().listFiles();
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; i++) {
+            assertTrue(files[i].getName().endsWith(".json.gz"));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(files[i])),
+                    "UTF-8"));
+            try {
+                PubsubMessage message = JacksonFactory.getDefaultInstance()
+                        .fromString(reader.readLine(), PubsubMessage.class);
+                assertEquals("payload " + i,
+                        new String(message.decodeData(), "UTF-8"));
+                assertEquals(Integer.toString(i),
+                        message.getAttributes().get("seq"));
+                assertNull(reader.readLine());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+}
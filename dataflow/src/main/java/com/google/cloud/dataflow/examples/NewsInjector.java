@@ -261,12 +261,26 @@ public class NewsInjector {
 
   private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
 
+  /**
+   * Transport shared by all the Cloud Pub/Sub clients of the JVM, so that
+   * they reuse its connections instead of each doing its own TLS handshakes.
+   */
+  private static HttpTransport sharedTransport;
+
+  private static synchronized HttpTransport getSharedTransport()
+    throws IOException, GeneralSecurityException {
+    if (sharedTransport == null) {
+      sharedTransport = GoogleNetHttpTransport.newTrustedTransport();
+    }
+    return sharedTransport;
+  }
+
   /**
    * Creates a Cloud Pub/Sub client.
    */
   public Pubsub createPubsubClient()
     throws IOException, GeneralSecurityException {
-    HttpTransport transport = GoogleNetHttpTransport.newTrustedTransport();
+    HttpTransport transport = getSharedTransport();
     GoogleCredential credential = GoogleCredential.getApplicationDefault();
     HttpRequestInitializer initializer =
         new RetryHttpInitializerWrapper(credential);
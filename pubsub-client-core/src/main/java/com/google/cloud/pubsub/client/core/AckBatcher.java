@@ -0,0 +1,318 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.AcknowledgeRequest;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accumulates ack ids from many pulls and acknowledges them in the
+ * background with as few acknowledge calls as possible.
+ *
+ * <p>The pending ack ids are sent when their number reaches the max count,
+ * when their encoded size reaches the max byte size, or when the oldest of
+ * them has waited for the max delay, whichever comes first.</p>
+ */
+public final class AckBatcher implements Closeable {
+
+    /**
+     * A private logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(AckBatcher.class.getName());
+
+    /**
+     * Default max number of ack ids in a single acknowledge call.
+     */
+    static final int DEFAULT_MAX_COUNT = PubsubClients.BATCH_SIZE;
+
+    /**
+     * Default max encoded size of the ack ids in a single acknowledge call.
+     */
+    static final int DEFAULT_MAX_BYTES = 512 * 1024;
+
+    /**
+     * Default max time in milliseconds an ack id waits before being sent.
+     */
+    static final long DEFAULT_MAX_DELAY_MILLIS = 100;
+
+    /**
+     * Number of threads sending acknowledge calls.
+     */
+    private static final int FLUSH_THREADS = 2;
+
+    /**
+     * Bytes added by JSON encoding to every ack id: quotes and a comma.
+     */
+    private static final int ACK_ID_OVERHEAD = 3;
+
+    /**
+     * Cloud Pub/Sub client.
+     */
+    private final Pubsub client;
+
+    /**
+     * Fully qualified name of the subscription.
+     */
+    private final String subscriptionName;
+
+    /**
+     * Max number of ack ids in a single acknowledge call.
+     */
+    private final int maxCount;
+
+    /**
+     * Max encoded size of the ack ids in a single acknowledge call.
+     */
+    private final int maxBytes;
+
+    /**
+     * Max time in milliseconds an ack id waits before being sent.
+     */
+    private final long maxDelayMillis;
+
+    /**
+     * Sends the acknowledge calls and runs the delayed flushes.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Number of acknowledge calls made so far.
+     */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * Number of ack ids acknowledged so far.
+     */
+    private final AtomicLong ackCount = new AtomicLong();
+
+    /**
+     * Ack ids which are not sent yet; guarded by this.
+     */
+    private List<String> pending = new ArrayList<>();
+
+    /**
+     * Encoded size of the pending ack ids; guarded by this.
+     */
+    private int pendingBytes;
+
+    /**
+     * The delayed flush of the pending ack ids, if any; guarded by this.
+     */
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * A constructor with the default limits.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param subscriptionName Fully qualified name of the subscription.
+     */
+    public AckBatcher(final Pubsub client, final String subscriptionName) {
+        this(client, subscriptionName, DEFAULT_MAX_COUNT, DEFAULT_MAX_BYTES,
+                DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * A constructor.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param subscriptionName Fully qualified name of the subscription.
+     * @param maxCount Max number of ack ids in a single acknowledge call.
+     * @param maxBytes Max encoded size of the ack ids in a single
+     * acknowledge call.
+     * @param maxDelayMillis Max time in milliseconds an ack id waits before
+     * being sent.
+     */
+    public AckBatcher(final Pubsub client, final String subscriptionName,
+                      final int maxCount, final int maxBytes,
+                      final long maxDelayMillis) {
+        Preconditions.checkArgument(maxCount > 0,
+                "max count must be positive");
+        Preconditions.checkArgument(maxBytes > 0,
+                "max bytes must be positive");
+        Preconditions.checkArgument(maxDelayMillis >= 0,
+                "max delay must not be negative");
+        this.client = Preconditions.checkNotNull(client);
+        this.subscriptionName = Preconditions.checkNotNull(subscriptionName);
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        this.maxDelayMillis = maxDelayMillis;
+        this.executor = Executors.newScheduledThreadPool(FLUSH_THREADS,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ack-batcher-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    /**
+     * Adds an ack id to be acknowledged. Never blocks on the network.
+     *
+     * @param ackId Ack id of a received message.
+     */
+    public synchronized void add(final String ackId) {
+        int bytes = ackId.length() + ACK_ID_OVERHEAD;
+        if (!pending.isEmpty() && pendingBytes + bytes > maxBytes) {
+            sendAsync(takePending());
+        }
+        pending.add(ackId);
+        pendingBytes += bytes;
+        if (pending.size() >= maxCount || pendingBytes >= maxBytes) {
+            sendAsync(takePending());
+        } else if (scheduledFlush == null) {
+            scheduledFlush = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    List<String> ackIds;
+                    synchronized (AckBatcher.this) {
+                        scheduledFlush = null;
+                        ackIds = takePending();
+                    }
+                    sendQuietly(ackIds);
+                }
+            }, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Acknowledges the pending ack ids in the calling thread.
+     *
+     * @throws IOException when Cloud Pub/Sub API calls fail.
+     */
+    public void flush() throws IOException {
+        List<String> ackIds;
+        synchronized (this) {
+            ackIds = takePending();
+        }
+        send(ackIds);
+    }
+
+    /**
+     * Acknowledges the pending ack ids and stops the background threads.
+     *
+     * @throws IOException when Cloud Pub/Sub API calls fail.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info(getStats());
+    }
+
+    /**
+     * Returns the number of acknowledge calls made so far.
+     *
+     * @return the number of acknowledge calls.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of ack ids acknowledged so far.
+     *
+     * @return the number of ack ids.
+     */
+    public long getAckCount() {
+        return ackCount.get();
+    }
+
+    /**
+     * Returns a summary of how many ack ids were coalesced per call.
+     *
+     * @return a human readable summary.
+     */
+    public String getStats() {
+        long requests = requestCount.get();
+        long acks = ackCount.get();
+        double perRequest = 0;
+        if (requests > 0) {
+            perRequest = (double) acks / requests;
+        }
+        return String.format(
+                "Acknowledged %d messages with %d requests (%.1f per request)",
+                acks, requests, perRequest);
+    }
+
+    /**
+     * Takes the pending ack ids out and cancels the delayed flush. Must be
+     * called with the lock held.
+     *
+     * @return the pending ack ids.
+     */
+    private List<String> takePending() {
+        List<String> ackIds = pending;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return ackIds;
+    }
+
+    /**
+     * Acknowledges the given ack ids in a background thread.
+     *
+     * @param ackIds Ack ids to acknowledge.
+     */
+    private void sendAsync(final List<String> ackIds) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sendQuietly(ackIds);
+            }
+        });
+    }
+
+    /**
+     * Acknowledges the given ack ids, logging failures. Messages which fail
+     * to be acknowledged are redelivered by the service.
+     *
+     * @param ackIds Ack ids to acknowledge.
+     */
+    private void sendQuietly(final List<String> ackIds) {
+        try {
+            send(ackIds);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to acknowledge "
+                    + ackIds.size() + " messages", e);
+        }
+    }
+
+    /**
+     * Acknowledges the given ack ids with a single call.
+     *
+     * @param ackIds Ack ids to acknowledge.
+     * @throws IOException when Cloud Pub/Sub API calls fail.
+     */
+    private void send(final List<String> ackIds) throws IOException {
+        if (ackIds.isEmpty()) {
+            return;
+        }
+        AcknowledgeRequest ackRequest = new AcknowledgeRequest();
+        ackRequest.setAckIds(ackIds);
+        client.projects().subscriptions()
+                .acknowledge(subscriptionName, ackRequest)
+                .execute();
+        requestCount.incrementAndGet();
+        ackCount.addAndGet(ackIds.size());
+        LOG.fine("Acknowledged " + ackIds.size() + " messages in one request");
+    }
+}
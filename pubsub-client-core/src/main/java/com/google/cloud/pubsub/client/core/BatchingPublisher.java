@@ -0,0 +1,400 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PublishRequest;
+import com.google.api.services.pubsub.model.PublishResponse;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Utf8;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects messages per topic and publishes them in batches.
+ *
+ * <p>The pending messages of a topic are published when their number
+ * reaches the max count, when the size of the request would exceed the
+ * max byte size, or when the oldest of them has waited for the linger
+ * time, whichever comes first. Every message gets a future which is
+ * resolved to its message id once its batch is published.</p>
+ */
+public final class BatchingPublisher implements Closeable {
+
+    /**
+     * Max number of messages the API accepts in a publish call.
+     */
+    public static final int MAX_MESSAGES_PER_REQUEST = 1000;
+
+    /**
+     * Max size in bytes of a publish call the API accepts.
+     */
+    public static final int MAX_REQUEST_BYTES = 10 * 1000 * 1000;
+
+    /**
+     * Default time in milliseconds a message waits for more messages.
+     */
+    public static final long DEFAULT_LINGER_MILLIS = 10;
+
+    /**
+     * Default number of publish calls made at the same time.
+     */
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Bytes added to the request by the JSON encoding of a message.
+     */
+    private static final int MESSAGE_OVERHEAD = 32;
+
+    /**
+     * Bytes added to the request by the JSON encoding of an attribute.
+     */
+    private static final int ATTRIBUTE_OVERHEAD = 8;
+
+    /**
+     * Bytes taken by the JSON envelope of a publish request.
+     */
+    private static final int REQUEST_OVERHEAD = 32;
+
+    /**
+     * Bytes added to a message by the idempotency key of a hedged publish:
+     * the attribute name and a UUID.
+     */
+    private static final int IDEMPOTENCY_KEY_BYTES =
+            HedgedPublisher.IDEMPOTENCY_KEY_ATTRIBUTE.length() + 36
+                    + ATTRIBUTE_OVERHEAD;
+
+    /**
+     * Max size in bytes of the data of a message without attributes, such
+     * that its base64 encoding still fits in a publish call, hedged or not.
+     */
+    public static final int MAX_DATA_BYTES = (MAX_REQUEST_BYTES
+            - REQUEST_OVERHEAD - MESSAGE_OVERHEAD - IDEMPOTENCY_KEY_BYTES)
+            / 4 * 3;
+
+    /**
+     * Cloud Pub/Sub client.
+     */
+    private final Pubsub client;
+
+    /**
+     * Max number of messages in a single publish call.
+     */
+    private final int maxCount;
+
+    /**
+     * Max size in bytes of a single publish call.
+     */
+    private final int maxBytes;
+
+    /**
+     * Max time in milliseconds a message waits for more messages.
+     */
+    private final long lingerMillis;
+
+    /**
+     * Makes the publish calls and runs the delayed flushes.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Makes the publish calls with hedging, or null.
+     */
+    private final HedgedPublisher hedgedPublisher;
+
+    /**
+     * Messages which are not sent yet, keyed by topic; guarded by this.
+     */
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    /**
+     * Messages of a single topic waiting to be published together.
+     */
+    private static final class Batch {
+        /**
+         * Fully qualified name of the topic.
+         */
+        private final String topic;
+
+        /**
+         * The messages.
+         */
+        private final List<PubsubMessage> messages = new ArrayList<>();
+
+        /**
+         * Futures of the messages, in the same order.
+         */
+        private final List<SettableFuture<String>> futures =
+                new ArrayList<>();
+
+        /**
+         * Estimated size in bytes of the publish call.
+         */
+        private int bytes = REQUEST_OVERHEAD;
+
+        /**
+         * The delayed flush of this batch, if any.
+         */
+        private ScheduledFuture<?> scheduledFlush;
+
+        /**
+         * A constructor.
+         *
+         * @param topic Fully qualified name of the topic.
+         */
+        Batch(final String topic) {
+            this.topic = topic;
+        }
+    }
+
+    /**
+     * A constructor with the default limits.
+     *
+     * @param client Cloud Pub/Sub client.
+     */
+    public BatchingPublisher(final Pubsub client) {
+        this(client, MAX_MESSAGES_PER_REQUEST, MAX_REQUEST_BYTES,
+                DEFAULT_LINGER_MILLIS, DEFAULT_THREADS);
+    }
+
+    /**
+     * A constructor.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param maxCount Max number of messages in a single publish call.
+     * @param maxBytes Max size in bytes of a single publish call.
+     * @param lingerMillis Max time in milliseconds a message waits for more
+     * messages.
+     * @param threads Number of publish calls made at the same time.
+     */
+    public BatchingPublisher(final Pubsub client, final int maxCount,
+                             final int maxBytes, final long lingerMillis,
+                             final int threads) {
+        this(client, maxCount, maxBytes, lingerMillis, threads, null);
+    }
+
+    /**
+     * A constructor hedging the publish calls.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param maxCount Max number of messages in a single publish call.
+     * @param maxBytes Max size in bytes of a single publish call.
+     * @param lingerMillis Max time in milliseconds a message waits for more
+     * messages.
+     * @param threads Number of publish calls made at the same time.
+     * @param hedgedPublisher Makes the publish calls with hedging, or null
+     * to make them directly; not closed by this publisher.
+     */
+    public BatchingPublisher(final Pubsub client, final int maxCount,
+                             final int maxBytes, final long lingerMillis,
+                             final int threads,
+                             final HedgedPublisher hedgedPublisher) {
+        Preconditions.checkArgument(
+                maxCount > 0 && maxCount <= MAX_MESSAGES_PER_REQUEST,
+                "max count must be between 1 and %s",
+                MAX_MESSAGES_PER_REQUEST);
+        Preconditions.checkArgument(
+                maxBytes > REQUEST_OVERHEAD && maxBytes <= MAX_REQUEST_BYTES,
+                "max bytes must be between %s and %s", REQUEST_OVERHEAD,
+                MAX_REQUEST_BYTES);
+        Preconditions.checkArgument(lingerMillis >= 0,
+                "linger time must not be negative");
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        this.client = Preconditions.checkNotNull(client);
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.hedgedPublisher = hedgedPublisher;
+        this.executor = Executors.newScheduledThreadPool(threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("batching-publisher-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    /**
+     * Queues a message to be published. Never blocks on the network. When
+     * the calls are hedged, the message gets its idempotency key here, so
+     * that the key is counted in the size of the request.
+     *
+     * @param topic Fully qualified name of the topic.
+     * @param message The message to publish.
+     * @return a future resolved to the message id.
+     */
+    public synchronized ListenableFuture<String> publish(
+            final String topic, final PubsubMessage message) {
+        if (hedgedPublisher != null) {
+            HedgedPublisher.addIdempotencyKey(message);
+        }
+        int size = sizeOf(message);
+        if (REQUEST_OVERHEAD + size > maxBytes) {
+            return Futures.immediateFailedFuture(new IllegalArgumentException(
+                    "Message too large: " + size + " bytes"));
+        }
+        Batch batch = batches.get(topic);
+        if (batch != null && batch.bytes + size > maxBytes) {
+            sendAsync(takeBatch(topic));
+            batch = null;
+        }
+        if (batch == null) {
+            batch = new Batch(topic);
+            batches.put(topic, batch);
+        }
+        SettableFuture<String> future = SettableFuture.create();
+        batch.messages.add(message);
+        batch.futures.add(future);
+        batch.bytes += size;
+        if (batch.messages.size() >= maxCount) {
+            sendAsync(takeBatch(topic));
+        } else if (batch.scheduledFlush == null) {
+            final Batch lingering = batch;
+            batch.scheduledFlush = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (BatchingPublisher.this) {
+                        // The batch may have been sent already, and a newer
+                        // one which has not lingered yet may have taken its
+                        // place.
+                        if (batches.get(topic) != lingering) {
+                            return;
+                        }
+                        takeBatch(topic);
+                    }
+                    send(lingering);
+                }
+            }, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+        return future;
+    }
+
+    /**
+     * Sends all the pending messages without waiting for the linger time.
+     */
+    public synchronized void flush() {
+        for (String topic : new ArrayList<>(batches.keySet())) {
+            sendAsync(takeBatch(topic));
+        }
+    }
+
+    /**
+     * Publishes all the pending messages, waits for the calls in flight and
+     * stops the background threads.
+     *
+     * @throws IOException when interrupted while waiting.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while publishing", e);
+        }
+    }
+
+    /**
+     * Estimates the size a message adds to a publish call.
+     *
+     * @param message The message.
+     * @return the estimated size in bytes.
+     */
+    static int sizeOf(final PubsubMessage message) {
+        int size = MESSAGE_OVERHEAD;
+        if (message.getData() != null) {
+            // Already base64 encoded, so one byte per character.
+            size += message.getData().length();
+        }
+        Map<String, String> attributes = message.getAttributes();
+        if (attributes != null) {
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                size += Utf8.encodedLength(entry.getKey())
+                        + Utf8.encodedLength(entry.getValue())
+                        + ATTRIBUTE_OVERHEAD;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Takes the pending batch of a topic out and cancels its delayed flush.
+     * Must be called with the lock held.
+     *
+     * @param topic Fully qualified name of the topic.
+     * @return the batch, or null if there is none.
+     */
+    private Batch takeBatch(final String topic) {
+        Batch batch = batches.remove(topic);
+        if (batch != null && batch.scheduledFlush != null) {
+            batch.scheduledFlush.cancel(false);
+        }
+        return batch;
+    }
+
+    /**
+     * Publishes a batch in a background thread.
+     *
+     * @param batch The batch to publish, may be null.
+     */
+    private void sendAsync(final Batch batch) {
+        if (batch == null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                send(batch);
+            }
+        });
+    }
+
+    /**
+     * Publishes a batch with a single call and resolves its futures.
+     *
+     * @param batch The batch to publish, may be null.
+     */
+    private void send(final Batch batch) {
+        if (batch == null) {
+            return;
+        }
+        PublishRequest publishRequest = new PublishRequest()
+                .setMessages(batch.messages);
+        try {
+            PublishResponse publishResponse;
+            if (hedgedPublisher != null) {
+                publishResponse = hedgedPublisher.publish(batch.topic,
+                        publishRequest);
+            } else {
+                publishResponse = client.projects().topics()
+                        .publish(batch.topic, publishRequest)
+                        .execute();
+            }
+            List<String> messageIds = publishResponse.getMessageIds();
+            for (int i = 0; i < batch.futures.size(); i++) {
+                if (messageIds != null && i < messageIds.size()) {
+                    batch.futures.get(i).set(messageIds.get(i));
+                } else {
+                    batch.futures.get(i).setException(new IOException(
+                            "No message id in the publish response"));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (SettableFuture<String> future : batch.futures) {
+                future.setException(e);
+            }
+        }
+    }
+}
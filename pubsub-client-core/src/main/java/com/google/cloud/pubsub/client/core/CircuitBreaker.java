@@ -0,0 +1,309 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Stops sending the requests to an API method while most of them fail.
+ *
+ * <p>The breaker is closed at first and records the outcome of the recent
+ * requests. When enough of them failed, it opens: requests then fail at
+ * once with an {@link OpenException} instead of being sent and retried.
+ * After a while it becomes half-open and lets a single probe request
+ * through, which closes it if it succeeds and opens it again if it
+ * fails.</p>
+ */
+public final class CircuitBreaker implements CircuitBreakerMXBean {
+
+    /**
+     * A private logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(CircuitBreaker.class.getName());
+
+    /**
+     * Default number of recent requests the failure rate is computed on.
+     */
+    static final int DEFAULT_WINDOW_SIZE = 20;
+
+    /**
+     * Default failure rate above which the breaker opens.
+     */
+    static final double DEFAULT_FAILURE_THRESHOLD = 0.5;
+
+    /**
+     * Default time the breaker stays open before a probe.
+     */
+    static final long DEFAULT_OPEN_MILLIS = 5000;
+
+    /**
+     * The states of a breaker.
+     */
+    enum State {
+        /**
+         * Requests are sent.
+         */
+        CLOSED,
+        /**
+         * Requests fail at once.
+         */
+        OPEN,
+        /**
+         * A single probe request is sent.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Thrown instead of sending a request while the breaker is open.
+     */
+    public static final class OpenException extends IOException {
+        /**
+         * Serialization id.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * A constructor.
+         *
+         * @param method The name of the API method.
+         */
+        OpenException(final String method) {
+            super("The circuit breaker of " + method + " is open");
+        }
+    }
+
+    /**
+     * The name of the API method.
+     */
+    private final String method;
+
+    /**
+     * Failure rate above which the breaker opens.
+     */
+    private final double failureThreshold;
+
+    /**
+     * Time the breaker stays open before a probe, in nanoseconds.
+     */
+    private final long openNanos;
+
+    /**
+     * Tells the time.
+     */
+    private final Ticker ticker;
+
+    /**
+     * Outcomes of the recent requests, true for failures; guarded by this.
+     */
+    private final boolean[] window;
+
+    /**
+     * Next slot of the window; guarded by this.
+     */
+    private int next;
+
+    /**
+     * Number of outcomes in the window; guarded by this.
+     */
+    private int recorded;
+
+    /**
+     * Number of failures in the window; guarded by this.
+     */
+    private int failures;
+
+    /**
+     * The state; guarded by this.
+     */
+    private State state = State.CLOSED;
+
+    /**
+     * When the breaker last opened; guarded by this.
+     */
+    private long openedNanos;
+
+    /**
+     * Whether the probe is in flight; guarded by this.
+     */
+    private boolean probing;
+
+    /**
+     * Number of times the breaker opened; guarded by this.
+     */
+    private long opened;
+
+    /**
+     * Number of requests rejected; guarded by this.
+     */
+    private long rejected;
+
+    /**
+     * A constructor with the default settings.
+     *
+     * @param method The name of the API method.
+     */
+    public CircuitBreaker(final String method) {
+        this(method, DEFAULT_WINDOW_SIZE, DEFAULT_FAILURE_THRESHOLD,
+                DEFAULT_OPEN_MILLIS, Ticker.systemTicker());
+    }
+
+    /**
+     * A constructor.
+     *
+     * @param method The name of the API method.
+     * @param windowSize Number of recent requests the failure rate is
+     * computed on, and min number of requests before the breaker opens.
+     * @param failureThreshold Failure rate above which the breaker opens.
+     * @param openMillis Time the breaker stays open before a probe.
+     * @param ticker Tells the time.
+     */
+    public CircuitBreaker(final String method, final int windowSize,
+                          final double failureThreshold,
+                          final long openMillis, final Ticker ticker) {
+        Preconditions.checkArgument(windowSize > 0,
+                "window size must be positive");
+        Preconditions.checkArgument(failureThreshold > 0
+                && failureThreshold <= 1,
+                "failure threshold must be in (0, 1]");
+        this.method = Preconditions.checkNotNull(method);
+        this.window = new boolean[windowSize];
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.ticker = Preconditions.checkNotNull(ticker);
+    }
+
+    /**
+     * Lets a request through, or fails it if the breaker is open.
+     *
+     * @throws OpenException when the request must not be sent.
+     */
+    public synchronized void acquire() throws OpenException {
+        if (state == State.OPEN
+                && ticker.read() - openedNanos >= openNanos) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.CLOSED) {
+            return;
+        }
+        if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return;
+        }
+        rejected++;
+        throw new OpenException(method);
+    }
+
+    /**
+     * Records a request which succeeded, or failed because of the caller.
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            LOG.info("Closing the circuit breaker of " + method);
+            state = State.CLOSED;
+            clearWindow();
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Records a request which failed because of the service.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recorded == window.length
+                    && failures >= failureThreshold * recorded) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Records a request which was let through but not sent after all.
+     */
+    public synchronized void onCancelled() {
+        probing = false;
+    }
+
+    /**
+     * Tells whether requests are failing without being sent.
+     *
+     * @return true unless the breaker is closed.
+     */
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    @Override
+    public synchronized String getState() {
+        return state.name();
+    }
+
+    @Override
+    public synchronized double getFailureRate() {
+        if (recorded == 0) {
+            return 0;
+        }
+        return (double) failures / recorded;
+    }
+
+    @Override
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    @Override
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Records an outcome in the window. Must be called with the lock held.
+     *
+     * @param failed Whether the request failed.
+     */
+    private void record(final boolean failed) {
+        if (recorded == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        window[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    /**
+     * Forgets the recorded outcomes. Must be called with the lock held.
+     */
+    private void clearWindow() {
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+
+    /**
+     * Opens the breaker. Must be called with the lock held.
+     */
+    private void open() {
+        LOG.warning("Opening the circuit breaker of " + method);
+        state = State.OPEN;
+        openedNanos = ticker.read();
+        probing = false;
+        opened++;
+        clearWindow();
+    }
+}
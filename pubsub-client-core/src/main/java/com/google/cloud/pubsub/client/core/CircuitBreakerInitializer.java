@@ -0,0 +1,236 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Puts a {@link CircuitBreaker} per API method in front of the requests
+ * initialized by another HttpRequestInitializer, typically a
+ * {@link RetryHttpInitializerWrapper}.
+ *
+ * <p>Server errors, throttling and I/O errors count as failures. While the
+ * breaker of a method is open, its requests fail at once with a
+ * {@link CircuitBreaker.OpenException}, and the failed attempts in flight
+ * are not retried, so that no thread waits in a back-off for a service
+ * which is down.</p>
+ */
+public final class CircuitBreakerInitializer
+        implements HttpRequestInitializer {
+
+    /**
+     * The breakers of the process, registered over JMX.
+     */
+    private static final ConcurrentMap<String, CircuitBreaker>
+            DEFAULT_BREAKERS = new ConcurrentHashMap<>();
+
+    /**
+     * HTTP status of a request rejected for exceeding a quota or rate.
+     */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Lowest HTTP status of a server error.
+     */
+    private static final int SERVER_ERROR = 500;
+
+    /**
+     * Initializes the requests first.
+     */
+    private final HttpRequestInitializer delegate;
+
+    /**
+     * The breakers by method.
+     */
+    private final ConcurrentMap<String, CircuitBreaker> breakers;
+
+    /**
+     * A constructor sharing the breakers of the process.
+     *
+     * @param delegate Initializes the requests first.
+     */
+    public CircuitBreakerInitializer(final HttpRequestInitializer delegate) {
+        this(delegate, DEFAULT_BREAKERS);
+    }
+
+    /**
+     * A constructor.
+     *
+     * @param delegate Initializes the requests first.
+     * @param breakers The breakers by method, filled in as needed.
+     */
+    CircuitBreakerInitializer(final HttpRequestInitializer delegate,
+                              final ConcurrentMap<String, CircuitBreaker>
+                                      breakers) {
+        this.delegate = Preconditions.checkNotNull(delegate);
+        this.breakers = Preconditions.checkNotNull(breakers);
+    }
+
+    /**
+     * Returns the breaker of a method, creating it on the first call.
+     *
+     * @param method The name of the method.
+     * @return the breaker.
+     */
+    CircuitBreaker forMethod(final String method) {
+        CircuitBreaker breaker = breakers.get(method);
+        if (breaker != null) {
+            return breaker;
+        }
+        CircuitBreaker newBreaker = new CircuitBreaker(method);
+        breaker = breakers.putIfAbsent(method, newBreaker);
+        if (breaker != null) {
+            return breaker;
+        }
+        if (breakers == DEFAULT_BREAKERS) {
+            MXBeans.register(newBreaker, "CircuitBreaker", method);
+        }
+        return newBreaker;
+    }
+
+    /**
+     * Tells whether a response counts as a failure of the service.
+     *
+     * @param response The response.
+     * @return true for server errors and throttling.
+     */
+    private static boolean isFailure(final HttpResponse response) {
+        return response.getStatusCode() >= SERVER_ERROR
+                || response.getStatusCode() == TOO_MANY_REQUESTS;
+    }
+
+    @Override
+    public void initialize(final HttpRequest request) throws IOException {
+        delegate.initialize(request);
+        new Guard(request).install(request);
+    }
+
+    /**
+     * Wraps the interceptors and handlers of a request to consult and feed
+     * the breaker of its method.
+     */
+    private final class Guard implements HttpExecuteInterceptor,
+            HttpResponseInterceptor, HttpUnsuccessfulResponseHandler,
+            HttpIOExceptionHandler {
+        /**
+         * The interceptor of the delegate, or null.
+         */
+        private final HttpExecuteInterceptor interceptor;
+
+        /**
+         * The response interceptor of the delegate, or null.
+         */
+        private final HttpResponseInterceptor responseInterceptor;
+
+        /**
+         * The unsuccessful response handler of the delegate, or null.
+         */
+        private final HttpUnsuccessfulResponseHandler responseHandler;
+
+        /**
+         * The I/O exception handler of the delegate, or null.
+         */
+        private final HttpIOExceptionHandler ioExceptionHandler;
+
+        /**
+         * The breaker of the method; known once the request runs.
+         */
+        private CircuitBreaker breaker;
+
+        /**
+         * A constructor.
+         *
+         * @param request The request initialized by the delegate.
+         */
+        Guard(final HttpRequest request) {
+            interceptor = request.getInterceptor();
+            responseInterceptor = request.getResponseInterceptor();
+            responseHandler = request.getUnsuccessfulResponseHandler();
+            ioExceptionHandler = request.getIOExceptionHandler();
+        }
+
+        /**
+         * Installs this guard in place of the delegate's handlers.
+         *
+         * @param request The request.
+         */
+        void install(final HttpRequest request) {
+            request.setInterceptor(this);
+            request.setResponseInterceptor(this);
+            request.setUnsuccessfulResponseHandler(this);
+            request.setIOExceptionHandler(this);
+        }
+
+        @Override
+        public void intercept(final HttpRequest request) throws IOException {
+            if (breaker == null) {
+                breaker = forMethod(RequestMetrics.methodOf(request));
+            }
+            breaker.acquire();
+            if (interceptor == null) {
+                return;
+            }
+            boolean intercepted = false;
+            try {
+                interceptor.intercept(request);
+                intercepted = true;
+            } finally {
+                if (!intercepted) {
+                    breaker.onCancelled();
+                }
+            }
+        }
+
+        @Override
+        public void interceptResponse(final HttpResponse response)
+                throws IOException {
+            // Only called with the last response; the unsuccessful ones
+            // are recorded by handleResponse.
+            if (response.isSuccessStatusCode()) {
+                breaker.onSuccess();
+            }
+            if (responseInterceptor != null) {
+                responseInterceptor.interceptResponse(response);
+            }
+        }
+
+        @Override
+        public boolean handleResponse(final HttpRequest request,
+                                      final HttpResponse response,
+                                      final boolean supportsRetry)
+                throws IOException {
+            if (isFailure(response)) {
+                breaker.onFailure();
+                if (breaker.isOpen()) {
+                    return false;
+                }
+            } else {
+                breaker.onSuccess();
+            }
+            return responseHandler != null && responseHandler.handleResponse(
+                    request, response, supportsRetry);
+        }
+
+        @Override
+        public boolean handleIOException(final HttpRequest request,
+                                         final boolean supportsRetry)
+                throws IOException {
+            breaker.onFailure();
+            if (breaker.isOpen()) {
+                return false;
+            }
+            return ioExceptionHandler != null
+                    && ioExceptionHandler.handleIOException(request,
+                            supportsRetry);
+        }
+    }
+}
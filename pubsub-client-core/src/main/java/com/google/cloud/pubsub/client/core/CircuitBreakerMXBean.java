@@ -0,0 +1,36 @@
+package com.google.cloud.pubsub.client.core;
+
+/**
+ * The state of the circuit breaker of one Cloud Pub/Sub API method, as
+ * exported over JMX.
+ */
+public interface CircuitBreakerMXBean {
+
+    /**
+     * Returns the state of the breaker.
+     *
+     * @return "CLOSED", "OPEN" or "HALF_OPEN".
+     */
+    String getState();
+
+    /**
+     * Returns the failure rate of the recent requests.
+     *
+     * @return the rate, between 0 and 1.
+     */
+    double getFailureRate();
+
+    /**
+     * Returns the number of times the breaker opened.
+     *
+     * @return the number of times.
+     */
+    long getOpened();
+
+    /**
+     * Returns the number of requests failed without being sent.
+     *
+     * @return the number of requests.
+     */
+    long getRejected();
+}
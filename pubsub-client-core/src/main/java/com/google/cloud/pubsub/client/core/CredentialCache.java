@@ -0,0 +1,210 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.pubsub.PubsubScopes;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the access token of a credential fresh in the background, so that
+ * no API call waits for a token fetch.
+ *
+ * <p>A {@link Credential} refreshes its token inline, in the first request
+ * intercepted less than a minute before the token expires, and holds its
+ * lock meanwhile, so every concurrent request waits for the token server.
+ * Here a second credential with the same account fetches the tokens ahead
+ * of the expiry, off the request path, and hands them to the credential
+ * used by the clients, which then never has to refresh inline. Should the
+ * background refreshes keep failing, the credential still refreshes itself
+ * as usual.</p>
+ */
+public final class CredentialCache {
+
+    /**
+     * A private logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(CredentialCache.class.getName());
+
+    /**
+     * Time in seconds before the expiry at which a token is refreshed; well
+     * before the minute at which the credential would do it inline.
+     */
+    static final long REFRESH_MARGIN_SECONDS = 5 * 60;
+
+    /**
+     * Time in seconds after which a failed refresh is retried.
+     */
+    static final long RETRY_DELAY_SECONDS = 10;
+
+    /**
+     * The cache of the application default credentials; guarded by the
+     * class.
+     */
+    private static CredentialCache applicationDefault;
+
+    /**
+     * The credential used by the clients.
+     */
+    private final Credential credential;
+
+    /**
+     * Fetches the tokens, with the same account as the credential.
+     */
+    private final Credential refresher;
+
+    /**
+     * Runs the refreshes.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * A constructor.
+     *
+     * @param credential The credential used by the clients.
+     * @param refresher Fetches the tokens, with the same account.
+     * @param executor Runs the refreshes.
+     */
+    CredentialCache(final Credential credential, final Credential refresher,
+                    final ScheduledExecutorService executor) {
+        this.credential = Preconditions.checkNotNull(credential);
+        this.refresher = Preconditions.checkNotNull(refresher);
+        this.executor = Preconditions.checkNotNull(executor);
+    }
+
+    /**
+     * Returns the application default credentials, scoped for Cloud
+     * Pub/Sub, shared by the whole process and refreshed in the background.
+     * The first call fetches the first token, the others return at once.
+     *
+     * @param httpTransport HttpTransport used to fetch the tokens on the
+     * first call.
+     * @param jsonFactory JsonFactory used to parse the tokens on the first
+     * call.
+     * @return the shared credential.
+     * @throws IOException when we can not get the default credentials.
+     */
+    public static synchronized Credential getApplicationDefault(
+            final HttpTransport httpTransport, final JsonFactory jsonFactory)
+            throws IOException {
+        if (applicationDefault == null) {
+            ScheduledExecutorService executor =
+                    Executors.newSingleThreadScheduledExecutor(
+                            new ThreadFactoryBuilder()
+                                    .setNameFormat("credential-refresher-%d")
+                                    .setDaemon(true)
+                                    .build());
+            CredentialCache cache = new CredentialCache(
+                    newApplicationDefault(httpTransport, jsonFactory),
+                    newApplicationDefault(httpTransport, jsonFactory),
+                    executor);
+            cache.start();
+            applicationDefault = cache;
+        }
+        return applicationDefault.getCredential();
+    }
+
+    /**
+     * Loads the application default credentials, scoped for Cloud Pub/Sub.
+     *
+     * @param httpTransport HttpTransport used to fetch the tokens.
+     * @param jsonFactory JsonFactory used to parse the tokens.
+     * @return a new credential.
+     * @throws IOException when we can not get the default credentials.
+     */
+    private static GoogleCredential newApplicationDefault(
+            final HttpTransport httpTransport, final JsonFactory jsonFactory)
+            throws IOException {
+        GoogleCredential credential =
+            GoogleCredential.getApplicationDefault(httpTransport, jsonFactory);
+        if (credential.createScopedRequired()) {
+            credential = credential.createScoped(PubsubScopes.all());
+        }
+        return credential;
+    }
+
+    /**
+     * Returns the credential used by the clients.
+     *
+     * @return the credential.
+     */
+    public Credential getCredential() {
+        return credential;
+    }
+
+    /**
+     * Fetches the first token, then schedules the next refreshes. A failure
+     * is logged, and the credential then fetches its token inline.
+     */
+    void start() {
+        refresh();
+    }
+
+    /**
+     * Fetches a token, hands it to the credential and schedules the next
+     * refresh.
+     */
+    private void refresh() {
+        long delaySeconds;
+        try {
+            if (refresher.refreshToken()) {
+                credential.setAccessToken(refresher.getAccessToken());
+                credential.setExpirationTimeMilliseconds(
+                        refresher.getExpirationTimeMilliseconds());
+                delaySeconds = getRefreshDelaySeconds(
+                        refresher.getExpiresInSeconds());
+            } else {
+                LOG.warning("No access token could be fetched, retrying in "
+                        + RETRY_DELAY_SECONDS + "s");
+                delaySeconds = RETRY_DELAY_SECONDS;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to refresh the access token, "
+                    + "retrying in " + RETRY_DELAY_SECONDS + "s", e);
+            delaySeconds = RETRY_DELAY_SECONDS;
+        }
+        if (delaySeconds < 0) {
+            return;
+        }
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            }, delaySeconds, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException | SecurityException e) {
+            // E.g. no background threads on App Engine: the credential
+            // falls back to refreshing itself.
+            LOG.log(Level.WARNING, "Cannot refresh the access token in the "
+                    + "background", e);
+        }
+    }
+
+    /**
+     * Returns when to refresh a token: a few minutes before it expires, or
+     * halfway through its lifetime if that is short.
+     *
+     * @param expiresInSeconds Time in seconds until the token expires, or
+     * null if it never does.
+     * @return the delay in seconds, or -1 for never.
+     */
+    static long getRefreshDelaySeconds(final Long expiresInSeconds) {
+        if (expiresInSeconds == null) {
+            return -1;
+        }
+        return Math.max(1, Math.max(expiresInSeconds - REFRESH_MARGIN_SECONDS,
+                expiresInSeconds / 2));
+    }
+}
@@ -0,0 +1,918 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.googleapis.util.Utils;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.Clock;
+import com.google.api.services.pubsub.model.AcknowledgeRequest;
+import com.google.api.services.pubsub.model.Empty;
+import com.google.api.services.pubsub.model.ListSubscriptionsResponse;
+import com.google.api.services.pubsub.model.ListTopicsResponse;
+import com.google.api.services.pubsub.model.ModifyAckDeadlineRequest;
+import com.google.api.services.pubsub.model.PublishRequest;
+import com.google.api.services.pubsub.model.PublishResponse;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.api.services.pubsub.model.PullResponse;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.api.services.pubsub.model.Subscription;
+import com.google.api.services.pubsub.model.Topic;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An in-process fake of the Cloud Pub/Sub v1 REST API, to be passed as the
+ * HttpTransport of a Pubsub client, e.g. with
+ * {@link PubsubClients#getClient(HttpTransport, JsonFactory, String,
+ * String)}.
+ *
+ * <p>It keeps topics and subscriptions in memory and implements publish,
+ * pull (long polling unless returnImmediately is set), acknowledge and
+ * modifyAckDeadline. A pulled message which is not acknowledged before its
+ * ack deadline, or whose deadline is set to 0, is redelivered with a new
+ * ack id. A latency and a rate of 503 errors can be injected into every
+ * call, to measure throughput and retry behavior without a network.</p>
+ */
+public final class FakePubsubTransport extends HttpTransport {
+
+    /**
+     * Path of the API under the root URL.
+     */
+    private static final String SERVICE_PATH = "/v1/";
+
+    /**
+     * Ack deadline of the subscriptions which don't set one.
+     */
+    private static final int DEFAULT_ACK_DEADLINE_SECONDS = 10;
+
+    /**
+     * Default max time in milliseconds a pull waits for messages.
+     */
+    private static final long DEFAULT_PULL_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Milliseconds in a second.
+     */
+    private static final long ONE_SECOND = 1000;
+
+    /**
+     * HTTP status of a successful call.
+     */
+    private static final int OK = 200;
+
+    /**
+     * HTTP status of an invalid request.
+     */
+    private static final int BAD_REQUEST = 400;
+
+    /**
+     * HTTP status of a missing resource.
+     */
+    private static final int NOT_FOUND = 404;
+
+    /**
+     * HTTP status of a resource which already exists.
+     */
+    private static final int CONFLICT = 409;
+
+    /**
+     * HTTP status of an injected error.
+     */
+    private static final int UNAVAILABLE = 503;
+
+    /**
+     * Serializes the bodies.
+     */
+    private final JsonFactory jsonFactory;
+
+    /**
+     * Tells the time of the ack deadlines.
+     */
+    private final Clock clock;
+
+    /**
+     * Picks the injected errors.
+     */
+    private final Random random = new Random();
+
+    /**
+     * Topics by name; guarded by this.
+     */
+    private final Map<String, Topic> topics = new LinkedHashMap<>();
+
+    /**
+     * Subscriptions by name; guarded by this.
+     */
+    private final Map<String, FakeSubscription> subscriptions =
+            new LinkedHashMap<>();
+
+    /**
+     * Last message id given; guarded by this.
+     */
+    private long lastMessageId;
+
+    /**
+     * Last ack id given; guarded by this.
+     */
+    private long lastAckId;
+
+    /**
+     * Latency in milliseconds added to every call.
+     */
+    private volatile long latencyMillis;
+
+    /**
+     * Fraction of the calls which fail with a 503, between 0 and 1.
+     */
+    private volatile double errorRate;
+
+    /**
+     * Max time in milliseconds a pull waits for messages.
+     */
+    private volatile long pullTimeoutMillis = DEFAULT_PULL_TIMEOUT_MILLIS;
+
+    /**
+     * A message delivered to a subscriber and not acknowledged yet.
+     */
+    private static final class Lease implements Comparable<Lease> {
+        /**
+         * The ack id of this delivery.
+         */
+        private final String ackId;
+
+        /**
+         * The message.
+         */
+        private final PubsubMessage message;
+
+        /**
+         * When the ack deadline expires.
+         */
+        private final long deadlineMillis;
+
+        /**
+         * A constructor.
+         *
+         * @param ackId The ack id of this delivery.
+         * @param message The message.
+         * @param deadlineMillis When the ack deadline expires.
+         */
+        Lease(final String ackId, final PubsubMessage message,
+              final long deadlineMillis) {
+            this.ackId = ackId;
+            this.message = message;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        @Override
+        public int compareTo(final Lease other) {
+            return Long.compare(deadlineMillis, other.deadlineMillis);
+        }
+    }
+
+    /**
+     * The state of a subscription.
+     */
+    private static final class FakeSubscription {
+        /**
+         * The subscription as returned by the API.
+         */
+        private final Subscription subscription;
+
+        /**
+         * Messages waiting to be delivered, redeliveries first.
+         */
+        private final Deque<PubsubMessage> pending = new ArrayDeque<>();
+
+        /**
+         * Delivered messages by ack id.
+         */
+        private final Map<String, Lease> leases = new HashMap<>();
+
+        /**
+         * The leases, soonest deadline first; may hold stale entries, which
+         * are no longer the lease of their ack id, and are dropped when
+         * they reach the head.
+         */
+        private final PriorityQueue<Lease> deadlines = new PriorityQueue<>();
+
+        /**
+         * A constructor.
+         *
+         * @param subscription The subscription as returned by the API.
+         */
+        FakeSubscription(final Subscription subscription) {
+            this.subscription = subscription;
+        }
+    }
+
+    /**
+     * An error returned as the Google JSON error format.
+     */
+    private static final class ApiException extends Exception {
+        /**
+         * Serialization id.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The HTTP status.
+         */
+        private final int code;
+
+        /**
+         * The canonical status name.
+         */
+        private final String status;
+
+        /**
+         * A constructor.
+         *
+         * @param code The HTTP status.
+         * @param status The canonical status name.
+         * @param message A human readable message.
+         */
+        ApiException(final int code, final String status,
+                     final String message) {
+            super(message);
+            this.code = code;
+            this.status = status;
+        }
+    }
+
+    /**
+     * A constructor with the default JsonFactory and the system clock.
+     */
+    public FakePubsubTransport() {
+        this(Utils.getDefaultJsonFactory(), Clock.SYSTEM);
+    }
+
+    /**
+     * A constructor.
+     *
+     * @param jsonFactory Serializes the bodies.
+     * @param clock Tells the time of the ack deadlines.
+     */
+    public FakePubsubTransport(final JsonFactory jsonFactory,
+                               final Clock clock) {
+        this.jsonFactory = Preconditions.checkNotNull(jsonFactory);
+        this.clock = Preconditions.checkNotNull(clock);
+    }
+
+    /**
+     * Sets the latency added to every call.
+     *
+     * @param latencyMillis The latency in milliseconds.
+     */
+    public void setLatencyMillis(final long latencyMillis) {
+        Preconditions.checkArgument(latencyMillis >= 0,
+                "latency must not be negative");
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Sets the fraction of the calls which fail with a 503 before doing
+     * anything.
+     *
+     * @param errorRate The fraction, between 0 and 1.
+     */
+    public void setErrorRate(final double errorRate) {
+        Preconditions.checkArgument(errorRate >= 0 && errorRate <= 1,
+                "error rate must be between 0 and 1");
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Sets the max time a pull without returnImmediately waits for
+     * messages.
+     *
+     * @param pullTimeoutMillis The time in milliseconds.
+     */
+    public void setPullTimeoutMillis(final long pullTimeoutMillis) {
+        Preconditions.checkArgument(pullTimeoutMillis >= 0,
+                "pull timeout must not be negative");
+        this.pullTimeoutMillis = pullTimeoutMillis;
+    }
+
+    /**
+     * Returns the number of messages of a subscription which are not
+     * acknowledged yet, delivered or not.
+     *
+     * @param subscriptionName Fully qualified name of the subscription.
+     * @return the number of messages, or 0 if there is no such
+     * subscription.
+     */
+    public synchronized int getBacklog(final String subscriptionName) {
+        FakeSubscription state = subscriptions.get(subscriptionName);
+        if (state == null) {
+            return 0;
+        }
+        return state.pending.size() + state.leases.size();
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(final String method,
+                                               final String url) {
+        return new MockLowLevelHttpRequest(url) {
+            @Override
+            public LowLevelHttpResponse execute() throws IOException {
+                return handle(method, url, readContent(this));
+            }
+        };
+    }
+
+    /**
+     * Serves a call.
+     *
+     * @param method The HTTP method.
+     * @param url The URL.
+     * @param content The request body, possibly empty.
+     * @return the response.
+     * @throws IOException when interrupted.
+     */
+    private LowLevelHttpResponse handle(final String method, final String url,
+                                        final byte[] content)
+            throws IOException {
+        sleep(latencyMillis);
+        try {
+            if (errorRate > 0 && random.nextDouble() < errorRate) {
+                throw new ApiException(UNAVAILABLE, "UNAVAILABLE",
+                        "Injected error");
+            }
+            return respond(OK, route(method, url, content));
+        } catch (ApiException e) {
+            GenericJson error = new GenericJson();
+            error.put("code", e.code);
+            error.put("message", e.getMessage());
+            error.put("status", e.status);
+            GenericJson body = new GenericJson();
+            body.put("error", error);
+            return respond(e.code, body);
+        }
+    }
+
+    /**
+     * Dispatches a call to the method implementing it.
+     *
+     * @param method The HTTP method.
+     * @param url The URL.
+     * @param content The request body, possibly empty.
+     * @return the response body.
+     * @throws IOException when interrupted or the body is invalid.
+     * @throws ApiException when the call fails.
+     */
+    private Object route(final String method, final String url,
+                         final byte[] content)
+            throws IOException, ApiException {
+        String path = new GenericUrl(url).getRawPath();
+        if (!path.startsWith(SERVICE_PATH)) {
+            throw notFound(path);
+        }
+        String name = path.substring(SERVICE_PATH.length());
+        String verb = "";
+        int colon = name.lastIndexOf(':');
+        if (colon >= 0) {
+            verb = name.substring(colon + 1);
+            name = name.substring(0, colon);
+        }
+        String[] parts = name.split("/");
+        if (parts.length < 3 || !"projects".equals(parts[0])) {
+            throw notFound(path);
+        }
+        boolean isTopic = "topics".equals(parts[2]);
+        if (!isTopic && !"subscriptions".equals(parts[2])) {
+            throw notFound(path);
+        }
+        if (parts.length == 3 && "GET".equals(method)) {
+            if (isTopic) {
+                return listTopics(name);
+            }
+            return listSubscriptions(name);
+        }
+        if (parts.length != 4) {
+            throw notFound(path);
+        }
+        String call = method + " " + verb;
+        if (isTopic) {
+            switch (call) {
+                case "PUT ":
+                    return createTopic(name);
+                case "GET ":
+                    return getTopic(name);
+                case "DELETE ":
+                    return deleteTopic(name);
+                case "POST publish":
+                    return publish(name, parse(content, PublishRequest.class));
+                default:
+                    throw notFound(path);
+            }
+        }
+        switch (call) {
+            case "PUT ":
+                return createSubscription(name,
+                        parse(content, Subscription.class));
+            case "GET ":
+                return getSubscription(name).subscription;
+            case "DELETE ":
+                return deleteSubscription(name);
+            case "POST pull":
+                return pull(name, parse(content, PullRequest.class));
+            case "POST acknowledge":
+                return acknowledge(name,
+                        parse(content, AcknowledgeRequest.class));
+            case "POST modifyAckDeadline":
+                return modifyAckDeadline(name,
+                        parse(content, ModifyAckDeadlineRequest.class));
+            default:
+                throw notFound(path);
+        }
+    }
+
+    /**
+     * Creates a topic.
+     *
+     * @param name Fully qualified name of the topic.
+     * @return the topic.
+     * @throws ApiException when the topic exists.
+     */
+    private synchronized Topic createTopic(final String name)
+            throws ApiException {
+        if (topics.containsKey(name)) {
+            throw new ApiException(CONFLICT, "ALREADY_EXISTS",
+                    "Resource already exists in the project (resource="
+                    + name + ").");
+        }
+        Topic topic = new Topic().setName(name);
+        topics.put(name, topic);
+        return topic;
+    }
+
+    /**
+     * Returns a topic.
+     *
+     * @param name Fully qualified name of the topic.
+     * @return the topic.
+     * @throws ApiException when there is no such topic.
+     */
+    private synchronized Topic getTopic(final String name)
+            throws ApiException {
+        Topic topic = topics.get(name);
+        if (topic == null) {
+            throw notFound(name);
+        }
+        return topic;
+    }
+
+    /**
+     * Deletes a topic; its subscriptions are kept, as the API does.
+     *
+     * @param name Fully qualified name of the topic.
+     * @return an empty body.
+     * @throws ApiException when there is no such topic.
+     */
+    private synchronized Empty deleteTopic(final String name)
+            throws ApiException {
+        if (topics.remove(name) == null) {
+            throw notFound(name);
+        }
+        return new Empty();
+    }
+
+    /**
+     * Lists the topics of a project.
+     *
+     * @param parent "projects/PROJECT/topics".
+     * @return the topics, on a single page.
+     */
+    private synchronized ListTopicsResponse listTopics(final String parent) {
+        List<Topic> result = new ArrayList<>();
+        for (Topic topic : topics.values()) {
+            if (topic.getName().startsWith(parent + "/")) {
+                result.add(topic);
+            }
+        }
+        return new ListTopicsResponse().setTopics(result);
+    }
+
+    /**
+     * Publishes messages to all the subscriptions of a topic.
+     *
+     * @param name Fully qualified name of the topic.
+     * @param request The request.
+     * @return the message ids.
+     * @throws ApiException when there is no such topic or no message.
+     */
+    private synchronized PublishResponse publish(final String name,
+                                                 final PublishRequest request)
+            throws ApiException {
+        getTopic(name);
+        if (request.getMessages() == null || request.getMessages().isEmpty()) {
+            throw invalidArgument("No messages to publish.");
+        }
+        // The whole request is rejected if any message is invalid.
+        for (PubsubMessage message : request.getMessages()) {
+            if (message.getData() == null && message.getAttributes() == null) {
+                throw invalidArgument("A message must have data or "
+                        + "attributes.");
+            }
+        }
+        String publishTime = formatTime(clock.currentTimeMillis());
+        List<String> messageIds = new ArrayList<>();
+        for (PubsubMessage message : request.getMessages()) {
+            String messageId = Long.toString(++lastMessageId);
+            messageIds.add(messageId);
+            for (FakeSubscription state : subscriptions.values()) {
+                if (name.equals(state.subscription.getTopic())) {
+                    state.pending.add(new PubsubMessage()
+                            .setData(message.getData())
+                            .setAttributes(message.getAttributes())
+                            .setMessageId(messageId)
+                            .setPublishTime(publishTime));
+                }
+            }
+        }
+        notifyAll();
+        return new PublishResponse().setMessageIds(messageIds);
+    }
+
+    /**
+     * Creates a subscription, which gets the messages published from now
+     * on.
+     *
+     * @param name Fully qualified name of the subscription.
+     * @param request The subscription to create.
+     * @return the subscription.
+     * @throws ApiException when it exists or its topic doesn't.
+     */
+    private synchronized Subscription createSubscription(
+            final String name, final Subscription request)
+            throws ApiException {
+        if (subscriptions.containsKey(name)) {
+            throw new ApiException(CONFLICT, "ALREADY_EXISTS",
+                    "Resource already exists in the project (resource="
+                    + name + ").");
+        }
+        if (request.getTopic() == null) {
+            throw invalidArgument("A subscription needs a topic.");
+        }
+        getTopic(request.getTopic());
+        int ackDeadlineSeconds = DEFAULT_ACK_DEADLINE_SECONDS;
+        if (request.getAckDeadlineSeconds() != null
+                && request.getAckDeadlineSeconds() > 0) {
+            ackDeadlineSeconds = request.getAckDeadlineSeconds();
+        }
+        Subscription subscription = new Subscription()
+                .setName(name)
+                .setTopic(request.getTopic())
+                .setPushConfig(request.getPushConfig())
+                .setAckDeadlineSeconds(ackDeadlineSeconds);
+        subscriptions.put(name, new FakeSubscription(subscription));
+        return subscription;
+    }
+
+    /**
+     * Returns the state of a subscription.
+     *
+     * @param name Fully qualified name of the subscription.
+     * @return the state.
+     * @throws ApiException when there is no such subscription.
+     */
+    private synchronized FakeSubscription getSubscription(final String name)
+            throws ApiException {
+        FakeSubscription state = subscriptions.get(name);
+        if (state == null) {
+            throw notFound(name);
+        }
+        return state;
+    }
+
+    /**
+     * Deletes a subscription and its messages.
+     *
+     * @param name Fully qualified name of the subscription.
+     * @return an empty body.
+     * @throws ApiException when there is no such subscription.
+     */
+    private synchronized Empty deleteSubscription(final String name)
+            throws ApiException {
+        if (subscriptions.remove(name) == null) {
+            throw notFound(name);
+        }
+        notifyAll();
+        return new Empty();
+    }
+
+    /**
+     * Lists the subscriptions of a project.
+     *
+     * @param parent "projects/PROJECT/subscriptions".
+     * @return the subscriptions, on a single page.
+     */
+    private synchronized ListSubscriptionsResponse listSubscriptions(
+            final String parent) {
+        List<Subscription> result = new ArrayList<>();
+        for (FakeSubscription state : subscriptions.values()) {
+            if (state.subscription.getName().startsWith(parent + "/")) {
+                result.add(state.subscription);
+            }
+        }
+        return new ListSubscriptionsResponse().setSubscriptions(result);
+    }
+
+    /**
+     * Delivers messages, waiting for some unless returnImmediately is set.
+     *
+     * @param name Fully qualified name of the subscription.
+     * @param request The request.
+     * @return the messages, possibly none.
+     * @throws ApiException when there is no such subscription.
+     * @throws InterruptedIOException when interrupted while waiting.
+     */
+    private synchronized PullResponse pull(final String name,
+                                           final PullRequest request)
+            throws ApiException, InterruptedIOException {
+        if (request.getMaxMessages() == null
+                || request.getMaxMessages() <= 0) {
+            throw invalidArgument("maxMessages must be positive.");
+        }
+        FakeSubscription state = getSubscription(name);
+        boolean returnImmediately = Boolean.TRUE.equals(
+                request.getReturnImmediately());
+        long waitUntil = System.currentTimeMillis() + pullTimeoutMillis;
+        expireLeases(state);
+        while (state.pending.isEmpty() && !returnImmediately) {
+            long waitMillis = waitUntil - System.currentTimeMillis();
+            if (!state.leases.isEmpty()) {
+                // Wakes up for the next redelivery.
+                waitMillis = Math.min(waitMillis, Math.max(1,
+                        state.deadlines.peek().deadlineMillis
+                                - clock.currentTimeMillis()));
+            }
+            if (waitMillis <= 0) {
+                break;
+            }
+            try {
+                wait(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while pulling");
+            }
+            if (subscriptions.get(name) != state) {
+                throw notFound(name);
+            }
+            expireLeases(state);
+        }
+        long deadline = clock.currentTimeMillis()
+                + state.subscription.getAckDeadlineSeconds() * ONE_SECOND;
+        List<ReceivedMessage> received = new ArrayList<>();
+        while (!state.pending.isEmpty()
+                && received.size() < request.getMaxMessages()) {
+            PubsubMessage message = state.pending.poll();
+            Lease lease = new Lease(Long.toString(++lastAckId), message,
+                    deadline);
+            state.leases.put(lease.ackId, lease);
+            state.deadlines.add(lease);
+            received.add(new ReceivedMessage()
+                    .setAckId(lease.ackId)
+                    .setMessage(message));
+        }
+        PullResponse response = new PullResponse();
+        if (!received.isEmpty()) {
+            response.setReceivedMessages(received);
+        }
+        return response;
+    }
+
+    /**
+     * Acknowledges messages; unknown or expired ack ids are ignored. The
+     * entries of the acknowledged leases in the deadline queue become
+     * stale.
+     *
+     * @param name Fully qualified name of the subscription.
+     * @param request The request.
+     * @return an empty body.
+     * @throws ApiException when there is no such subscription.
+     */
+    private synchronized Empty acknowledge(final String name,
+                                           final AcknowledgeRequest request)
+            throws ApiException {
+        FakeSubscription state = getSubscription(name);
+        if (request.getAckIds() == null || request.getAckIds().isEmpty()) {
+            throw invalidArgument("No ack ids.");
+        }
+        for (String ackId : request.getAckIds()) {
+            state.leases.remove(ackId);
+        }
+        return new Empty();
+    }
+
+    /**
+     * Sets the ack deadline of delivered messages; 0 redelivers them right
+     * away.
+     *
+     * @param name Fully qualified name of the subscription.
+     * @param request The request.
+     * @return an empty body.
+     * @throws ApiException when there is no such subscription.
+     */
+    private synchronized Empty modifyAckDeadline(
+            final String name, final ModifyAckDeadlineRequest request)
+            throws ApiException {
+        FakeSubscription state = getSubscription(name);
+        if (request.getAckIds() == null || request.getAckIds().isEmpty()
+                || request.getAckDeadlineSeconds() == null
+                || request.getAckDeadlineSeconds() < 0) {
+            throw invalidArgument("Invalid ack ids or ack deadline.");
+        }
+        long deadline = clock.currentTimeMillis()
+                + request.getAckDeadlineSeconds() * ONE_SECOND;
+        for (String ackId : request.getAckIds()) {
+            Lease lease = state.leases.get(ackId);
+            if (lease != null) {
+                // Replaces the lease; the old entry of the queue becomes
+                // stale.
+                Lease extended = new Lease(ackId, lease.message, deadline);
+                state.leases.put(ackId, extended);
+                state.deadlines.add(extended);
+            }
+        }
+        expireLeases(state);
+        notifyAll();
+        return new Empty();
+    }
+
+    /**
+     * Puts the messages whose ack deadline has passed back in front of the
+     * pending ones. Must be called with the lock held.
+     *
+     * @param state The subscription.
+     */
+    private void expireLeases(final FakeSubscription state) {
+        long now = clock.currentTimeMillis();
+        List<PubsubMessage> expired = new ArrayList<>();
+        while (!state.deadlines.isEmpty()
+                && state.deadlines.peek().deadlineMillis <= now) {
+            Lease lease = state.deadlines.poll();
+            if (isLive(state, lease)) {
+                state.leases.remove(lease.ackId);
+                expired.add(lease.message);
+            }
+        }
+        for (int i = expired.size() - 1; i >= 0; i--) {
+            state.pending.addFirst(expired.get(i));
+        }
+        // Drops the stale entries from the queue head, so that it tells the
+        // next deadline.
+        while (!state.deadlines.isEmpty()
+                && !isLive(state, state.deadlines.peek())) {
+            state.deadlines.poll();
+        }
+    }
+
+    /**
+     * Tells whether an entry of the deadline queue is the current lease of
+     * its ack id, rather than a stale one left by an acknowledgement or a
+     * new deadline. Must be called with the lock held.
+     *
+     * @param state The subscription.
+     * @param lease The entry.
+     * @return true if the lease is current.
+     */
+    private static boolean isLive(final FakeSubscription state,
+                                  final Lease lease) {
+        return state.leases.get(lease.ackId) == lease;
+    }
+
+    /**
+     * Reads the body of a request, decompressing it if needed.
+     *
+     * @param request The request.
+     * @return the body, possibly empty.
+     * @throws IOException never, as it is written to memory.
+     */
+    private static byte[] readContent(final LowLevelHttpRequest request)
+            throws IOException {
+        if (request.getStreamingContent() == null) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.getStreamingContent().writeTo(out);
+        byte[] content = out.toByteArray();
+        if ("gzip".equals(request.getContentEncoding())) {
+            InputStream in = new GZIPInputStream(
+                    new ByteArrayInputStream(content));
+            content = ByteStreams.toByteArray(in);
+        }
+        return content;
+    }
+
+    /**
+     * Parses a request body.
+     *
+     * @param content The body.
+     * @param type The class of the body.
+     * @param <T> The type of the body.
+     * @return the parsed body.
+     * @throws IOException when the body is not valid JSON.
+     */
+    private <T> T parse(final byte[] content, final Class<T> type)
+            throws IOException {
+        return jsonFactory.createJsonParser(new ByteArrayInputStream(content))
+                .parseAndClose(type);
+    }
+
+    /**
+     * Builds a JSON response.
+     *
+     * @param code The HTTP status.
+     * @param body The body.
+     * @return the response.
+     * @throws IOException never.
+     */
+    private LowLevelHttpResponse respond(final int code, final Object body)
+            throws IOException {
+        return new MockLowLevelHttpResponse()
+                .setStatusCode(code)
+                .setContentType("application/json; charset=UTF-8")
+                .setContent(jsonFactory.toByteArray(body));
+    }
+
+    /**
+     * Returns the error of a missing resource.
+     *
+     * @param name The name of the resource.
+     * @return the error.
+     */
+    private static ApiException notFound(final String name) {
+        return new ApiException(NOT_FOUND, "NOT_FOUND",
+                "Resource not found (resource=" + name + ").");
+    }
+
+    /**
+     * Returns the error of an invalid request.
+     *
+     * @param message What is wrong.
+     * @return the error.
+     */
+    private static ApiException invalidArgument(final String message) {
+        return new ApiException(BAD_REQUEST, "INVALID_ARGUMENT", message);
+    }
+
+    /**
+     * Formats a time the way the API does.
+     *
+     * @param millis Milliseconds since the epoch.
+     * @return an RFC 3339 UTC timestamp.
+     */
+    private static String formatTime(final long millis) {
+        SimpleDateFormat format = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+    /**
+     * Sleeps for the injected latency.
+     *
+     * @param millis The latency in milliseconds.
+     * @throws InterruptedIOException when interrupted.
+     */
+    private static void sleep(final long millis)
+            throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bounds the number and the size of the messages pulled but not yet
+ * acknowledged or nacked.
+ *
+ * <p>Before every pull, {@link #reserve(int)} blocks while either limit is
+ * reached, then grants the number of messages the pull may ask for, which
+ * shrinks as the limit on messages gets closer. The size of the messages
+ * is only known once they are received, so the limit on bytes may be
+ * exceeded by the messages of the pulls in flight; it then stops the
+ * next pulls until enough messages are released.</p>
+ */
+public final class FlowController {
+
+    /**
+     * Default max number of outstanding messages.
+     */
+    public static final int DEFAULT_MAX_OUTSTANDING_MESSAGES =
+            10 * PubsubClients.BATCH_SIZE;
+
+    /**
+     * Default max size in bytes of the outstanding messages.
+     */
+    public static final long DEFAULT_MAX_OUTSTANDING_BYTES = 100L * 1024 * 1024;
+
+    /**
+     * Max number of outstanding messages.
+     */
+    private final int maxMessages;
+
+    /**
+     * Max size in bytes of the outstanding messages.
+     */
+    private final long maxBytes;
+
+    /**
+     * Outstanding messages, plus the ones reserved by the pulls in flight;
+     * guarded by this.
+     */
+    private int messages;
+
+    /**
+     * Size in bytes of the outstanding messages; guarded by this.
+     */
+    private long bytes;
+
+    /**
+     * A constructor.
+     *
+     * @param maxMessages Max number of outstanding messages.
+     * @param maxBytes Max size in bytes of the outstanding messages.
+     */
+    public FlowController(final int maxMessages, final long maxBytes) {
+        Preconditions.checkArgument(maxMessages > 0,
+                "max outstanding messages must be positive");
+        Preconditions.checkArgument(maxBytes > 0,
+                "max outstanding bytes must be positive");
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Waits until there is room for more messages and reserves it for a
+     * pull.
+     *
+     * @param wanted Max number of messages the pull would like.
+     * @return the number of messages the pull may ask for, at least 1.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    public synchronized int reserve(final int wanted)
+            throws InterruptedException {
+        Preconditions.checkArgument(wanted > 0, "wanted must be positive");
+        while (messages >= maxMessages || bytes >= maxBytes) {
+            wait();
+        }
+        int granted = Math.min(wanted, maxMessages - messages);
+        messages += granted;
+        return granted;
+    }
+
+    /**
+     * Records the messages received by a pull, and gives back the part of
+     * its reservation it didn't use.
+     *
+     * @param reserved The number of messages reserved for the pull.
+     * @param received The number of messages received.
+     * @param size The total size in bytes of the messages received.
+     */
+    public synchronized void received(final int reserved, final int received,
+                                      final long size) {
+        messages -= reserved - Math.min(reserved, received);
+        bytes += size;
+        notifyAll();
+    }
+
+    /**
+     * Releases a message once it is acknowledged or nacked.
+     *
+     * @param size The size in bytes of the message.
+     */
+    public synchronized void release(final long size) {
+        messages--;
+        bytes -= size;
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of outstanding and reserved messages.
+     *
+     * @return the number of messages.
+     */
+    public synchronized int getOutstandingMessages() {
+        return messages;
+    }
+
+    /**
+     * Returns the size of the outstanding messages.
+     *
+     * @return the size in bytes.
+     */
+    public synchronized long getOutstandingBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,375 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PublishRequest;
+import com.google.api.services.pubsub.model.PublishResponse;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes with hedged requests: when a publish call hasn't completed
+ * after a delay, a duplicate of it is sent, and the first response wins.
+ *
+ * <p>The delay is a high percentile of the latency of the recent calls, so
+ * that only the slowest calls are hedged. The hedges are limited to a
+ * fraction of the calls by a {@link RetryBudget}, so that a slow service
+ * doesn't get twice the load. Every message gets a unique
+ * {@link #IDEMPOTENCY_KEY_ATTRIBUTE} attribute before being sent, by which
+ * the subscribers can drop the copies published by both requests.</p>
+ */
+public final class HedgedPublisher implements Closeable {
+
+    /**
+     * Attribute holding a key unique to a message and its copies.
+     */
+    public static final String IDEMPOTENCY_KEY_ATTRIBUTE = "idempotency_key";
+
+    /**
+     * Default percentile of the latency after which a call is hedged.
+     */
+    public static final double DEFAULT_PERCENTILE = 95;
+
+    /**
+     * Default max fraction of the calls which are hedged.
+     */
+    public static final double DEFAULT_MAX_HEDGE_RATE = 0.05;
+
+    /**
+     * Delay used until enough latencies are known.
+     */
+    static final long INITIAL_DELAY_MILLIS = 200;
+
+    /**
+     * Number of latencies needed for a percentile.
+     */
+    static final int MIN_SAMPLES = 100;
+
+    /**
+     * Number of latencies after which a new histogram is started, so that
+     * the delay follows the recent latencies.
+     */
+    private static final int WINDOW_SIZE = 1000;
+
+    /**
+     * Max number of hedges which can be sent in a row.
+     */
+    private static final int MAX_HEDGE_BURST = 10;
+
+    /**
+     * Cloud Pub/Sub client.
+     */
+    private final Pubsub client;
+
+    /**
+     * Percentile of the latency after which a call is hedged.
+     */
+    private final double percentile;
+
+    /**
+     * Allows the hedges, or null when they are disabled.
+     */
+    private final RetryBudget hedgeBudget;
+
+    /**
+     * Sends the calls.
+     */
+    private final Executor executor;
+
+    /**
+     * Number of calls.
+     */
+    private final AtomicLong calls = new AtomicLong();
+
+    /**
+     * Number of hedges sent.
+     */
+    private final AtomicLong hedges = new AtomicLong();
+
+    /**
+     * Number of calls won by their hedge.
+     */
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * Latencies of the current window, in microseconds; guarded by this.
+     */
+    private LatencyHistogram current = new LatencyHistogram();
+
+    /**
+     * Latencies of the previous window, or null; guarded by this.
+     */
+    private LatencyHistogram previous;
+
+    /**
+     * A constructor with the default settings.
+     *
+     * @param client Cloud Pub/Sub client.
+     */
+    public HedgedPublisher(final Pubsub client) {
+        this(client, DEFAULT_PERCENTILE, DEFAULT_MAX_HEDGE_RATE);
+    }
+
+    /**
+     * A constructor.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param percentile Percentile of the latency after which a call is
+     * hedged.
+     * @param maxHedgeRate Max fraction of the calls which are hedged, after
+     * a burst of a few hedges; 0 disables the hedges.
+     */
+    public HedgedPublisher(final Pubsub client, final double percentile,
+                           final double maxHedgeRate) {
+        this(client, percentile, maxHedgeRate, Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("hedged-publisher-%d")
+                        .setDaemon(true)
+                        .build()));
+    }
+
+    /**
+     * A constructor sending every call on a new thread of the given
+     * factory, for environments where threads can't be pooled, such as the
+     * request threads of App Engine.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param percentile Percentile of the latency after which a call is
+     * hedged.
+     * @param maxHedgeRate Max fraction of the calls which are hedged, after
+     * a burst of a few hedges; 0 disables the hedges.
+     * @param threadFactory Creates the threads of the calls; called by the
+     * thread which publishes.
+     */
+    public HedgedPublisher(final Pubsub client, final double percentile,
+                           final double maxHedgeRate,
+                           final ThreadFactory threadFactory) {
+        this(client, percentile, maxHedgeRate,
+                newThreadPerTaskExecutor(threadFactory));
+    }
+
+    /**
+     * A constructor.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param percentile Percentile of the latency after which a call is
+     * hedged.
+     * @param maxHedgeRate Max fraction of the calls which are hedged.
+     * @param executor Sends the calls; shut down on close if it is an
+     * {@link ExecutorService}.
+     */
+    private HedgedPublisher(final Pubsub client, final double percentile,
+                            final double maxHedgeRate,
+                            final Executor executor) {
+        Preconditions.checkArgument(percentile > 0 && percentile < 100,
+                "percentile must be in (0, 100)");
+        Preconditions.checkArgument(maxHedgeRate >= 0 && maxHedgeRate <= 1,
+                "max hedge rate must be in [0, 1]");
+        this.client = Preconditions.checkNotNull(client);
+        this.percentile = percentile;
+        if (maxHedgeRate > 0) {
+            this.hedgeBudget = new RetryBudget(MAX_HEDGE_BURST, 0,
+                    maxHedgeRate, Ticker.systemTicker());
+        } else {
+            this.hedgeBudget = null;
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Returns an executor which starts a new thread for every task.
+     *
+     * @param threadFactory Creates the threads.
+     * @return the executor.
+     */
+    private static Executor newThreadPerTaskExecutor(
+            final ThreadFactory threadFactory) {
+        Preconditions.checkNotNull(threadFactory);
+        return new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                threadFactory.newThread(command).start();
+            }
+        };
+    }
+
+    /**
+     * Publishes messages, hedging the call if it is slow. The messages get
+     * an idempotency key attribute unless they have one.
+     *
+     * @param topic Fully qualified name of the topic.
+     * @param publishRequest The messages to publish.
+     * @return the response of the first call to succeed.
+     * @throws IOException when all the calls fail.
+     */
+    public PublishResponse publish(final String topic,
+                                   final PublishRequest publishRequest)
+            throws IOException {
+        for (PubsubMessage message : publishRequest.getMessages()) {
+            addIdempotencyKey(message);
+        }
+        calls.incrementAndGet();
+        if (hedgeBudget != null) {
+            hedgeBudget.onRequest();
+        }
+        Callable<PublishResponse> call = new Callable<PublishResponse>() {
+            @Override
+            public PublishResponse call() throws IOException {
+                return client.projects().topics()
+                        .publish(topic, publishRequest)
+                        .execute();
+            }
+        };
+        CompletionService<PublishResponse> completionService =
+                new ExecutorCompletionService<>(executor);
+        List<Future<PublishResponse>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            futures.add(completionService.submit(call));
+            Future<PublishResponse> done = completionService.poll(
+                    getDelayMillis(), TimeUnit.MILLISECONDS);
+            if (done == null && hedgeBudget != null
+                    && hedgeBudget.tryRetry()) {
+                hedges.incrementAndGet();
+                futures.add(completionService.submit(call));
+            }
+            ExecutionException failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                if (done == null) {
+                    done = completionService.take();
+                }
+                try {
+                    PublishResponse response = done.get();
+                    if (done != futures.get(0)) {
+                        hedgeWins.incrementAndGet();
+                    }
+                    record(System.nanoTime() - start);
+                    return response;
+                } catch (ExecutionException e) {
+                    failure = e;
+                }
+                done = null;
+            }
+            Throwables.propagateIfInstanceOf(failure.getCause(),
+                    IOException.class);
+            throw Throwables.propagate(failure.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while publishing");
+        } finally {
+            for (Future<PublishResponse> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Adds an idempotency key to a message unless it has one. Publishers
+     * which account for the size of their requests call it before doing
+     * so.
+     *
+     * @param message The message.
+     */
+    static void addIdempotencyKey(final PubsubMessage message) {
+        Map<String, String> attributes = message.getAttributes();
+        if (attributes != null
+                && attributes.containsKey(IDEMPOTENCY_KEY_ATTRIBUTE)) {
+            return;
+        }
+        Map<String, String> newAttributes = new HashMap<>();
+        if (attributes != null) {
+            newAttributes.putAll(attributes);
+        }
+        newAttributes.put(IDEMPOTENCY_KEY_ATTRIBUTE,
+                UUID.randomUUID().toString());
+        message.setAttributes(newAttributes);
+    }
+
+    /**
+     * Returns the time after which a call is hedged.
+     *
+     * @return the delay in milliseconds.
+     */
+    synchronized long getDelayMillis() {
+        LatencyHistogram histogram = current;
+        if (histogram.getCount() < MIN_SAMPLES) {
+            histogram = previous;
+        }
+        if (histogram == null) {
+            return INITIAL_DELAY_MILLIS;
+        }
+        return Math.max(1, TimeUnit.MICROSECONDS.toMillis(
+                histogram.getPercentile(percentile)));
+    }
+
+    /**
+     * Records the latency of a successful call.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    private synchronized void record(final long nanos) {
+        current.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (current.getCount() >= WINDOW_SIZE) {
+            previous = current;
+            current = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Returns the number of hedges sent.
+     *
+     * @return the number of hedges.
+     */
+    long getHedges() {
+        return hedges.get();
+    }
+
+    /**
+     * Returns the number of calls won by their hedge.
+     *
+     * @return the number of wins.
+     */
+    long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Returns a one line summary of the hedges.
+     *
+     * @return a human readable summary.
+     */
+    public String getSummary() {
+        return String.format("%d publish calls, %d hedged, %d won by the "
+                + "hedge, hedging after %d ms", calls.get(), hedges.get(),
+                hedgeWins.get(), getDelayMillis());
+    }
+
+    @Override
+    public void close() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.ProxySelectorRoutePlanner;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import java.net.ProxySelector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the HttpTransport shared by all the Cloud Pub/Sub clients of the
+ * process.
+ *
+ * <p>The transport is backed by Apache HttpClient with a pool of
+ * keep-alive connections, so that concurrent publish, pull and ack calls
+ * each get a connection without waiting for one another, and without doing
+ * a TLS handshake per call. Connections idle for too long are closed in the
+ * background before the server does it.</p>
+ */
+public final class HttpTransports {
+
+    /**
+     * Name of the system property holding the max number of connections of
+     * the shared transport.
+     */
+    public static final String MAX_CONNECTIONS_PROPERTY = "MAX_CONNECTIONS";
+
+    /**
+     * Default max number of connections to the API.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    /**
+     * Time in seconds after which an idle connection is closed.
+     */
+    private static final long IDLE_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Period in seconds of the idle connection eviction.
+     */
+    private static final long EVICTION_PERIOD_SECONDS = 30;
+
+    /**
+     * Size in bytes of the socket buffers.
+     */
+    private static final int SOCKET_BUFFER_SIZE = 8192;
+
+    /**
+     * Port of the http scheme.
+     */
+    private static final int HTTP_PORT = 80;
+
+    /**
+     * Port of the https scheme.
+     */
+    private static final int HTTPS_PORT = 443;
+
+    /**
+     * The shared transport; guarded by the class.
+     */
+    private static HttpTransport sharedTransport;
+
+    /**
+     * Prevents initialization.
+     */
+    private HttpTransports() {
+    }
+
+    /**
+     * Returns the transport shared by the process, building it on the first
+     * call with the max number of connections from the
+     * {@link #MAX_CONNECTIONS_PROPERTY} system property.
+     *
+     * @return the shared transport.
+     */
+    public static synchronized HttpTransport getSharedTransport() {
+        if (sharedTransport == null) {
+            sharedTransport = newPooledTransport(Integer.getInteger(
+                    MAX_CONNECTIONS_PROPERTY, DEFAULT_MAX_CONNECTIONS));
+        }
+        return sharedTransport;
+    }
+
+    /**
+     * Builds a transport with its own connection pool.
+     *
+     * @param maxConnections Max number of connections, to any host.
+     * @return the new transport.
+     */
+    public static HttpTransport newPooledTransport(final int maxConnections) {
+        Preconditions.checkArgument(maxConnections > 0,
+                "max connections must be positive");
+        HttpParams params = new BasicHttpParams();
+        // The idle connections are evicted instead of checked on every use.
+        HttpConnectionParams.setStaleCheckingEnabled(params, false);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        HttpConnectionParams.setSocketBufferSize(params, SOCKET_BUFFER_SIZE);
+        ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+        // Every call goes to the same host.
+        ConnManagerParams.setMaxConnectionsPerRoute(params,
+                new ConnPerRouteBean(maxConnections));
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http",
+                PlainSocketFactory.getSocketFactory(), HTTP_PORT));
+        registry.register(new Scheme("https",
+                SSLSocketFactory.getSocketFactory(), HTTPS_PORT));
+        final ThreadSafeClientConnManager connectionManager =
+                new ThreadSafeClientConnManager(params, registry);
+        DefaultHttpClient httpClient =
+                new DefaultHttpClient(connectionManager, params);
+        // Retries are left to the request initializer.
+        httpClient.setHttpRequestRetryHandler(
+                new DefaultHttpRequestRetryHandler(0, false));
+        httpClient.setRoutePlanner(new ProxySelectorRoutePlanner(registry,
+                ProxySelector.getDefault()));
+        ScheduledExecutorService evictor =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("idle-connection-evictor-%d")
+                                .setDaemon(true)
+                                .build());
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(IDLE_TIMEOUT_SECONDS,
+                        TimeUnit.SECONDS);
+            }
+        }, EVICTION_PERIOD_SECONDS, EVICTION_PERIOD_SECONDS, TimeUnit.SECONDS);
+        return new ApacheHttpTransport(httpClient);
+    }
+}
@@ -0,0 +1,191 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies in microseconds, with a relative
+ * precision of about 3% over the whole range of long values.
+ *
+ * <p>Values below 64 get one bucket each. Above that, every power of two
+ * is split into 32 linear buckets, in the way HdrHistogram does, so
+ * recording a value is a couple of bit operations and an atomic
+ * increment, and the memory used is fixed.</p>
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Number of bits of precision kept for every value.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * Number of linear buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of bits in a long.
+     */
+    private static final int LONG_BITS = 64;
+
+    /**
+     * Number of buckets needed to cover all the positive long values.
+     */
+    private static final int BUCKETS =
+            (LONG_BITS - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    /**
+     * Multiplier to turn a fraction into a percentage.
+     */
+    private static final double PERCENT = 100.0;
+
+    /**
+     * Number of values recorded in every bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Number of values recorded.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Sum of the values recorded.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Largest value recorded.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param micros The latency in microseconds; negative values are
+     * recorded as 0.
+     */
+    public void record(final long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the number of values.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded.
+     *
+     * @return the mean in microseconds, or 0 when empty.
+     */
+    public double getMean() {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        return (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return the max in microseconds, or 0 when empty.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded
+     * values fall, within the precision of the histogram.
+     *
+     * @param percentile The percentage, between 0 and 100.
+     * @return the value in microseconds, or 0 when empty.
+     */
+    public long getPercentile(final double percentile) {
+        Preconditions.checkArgument(percentile >= 0 && percentile <= PERCENT,
+                "percentile must be between 0 and 100");
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / PERCENT));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Returns a one line summary in milliseconds.
+     *
+     * @return a human readable summary.
+     */
+    public String getSummary() {
+        return String.format(
+                "p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, "
+                + "max %.1f ms, mean %.1f ms",
+                toMillis(getPercentile(50)), toMillis(getPercentile(90)),
+                toMillis(getPercentile(99)), toMillis(getPercentile(99.9)),
+                toMillis(getMax()), getMean() / 1000);
+    }
+
+    /**
+     * Converts microseconds to milliseconds.
+     *
+     * @param micros A duration in microseconds.
+     * @return the duration in milliseconds.
+     */
+    private static double toMillis(final long micros) {
+        return micros / 1000.0;
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param value A non-negative value.
+     * @return the index of the bucket.
+     */
+    private static int indexOf(final long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = LONG_BITS - Long.numberOfLeadingZeros(value)
+                - SUB_BUCKET_BITS - 1;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the highest value which falls in a bucket.
+     *
+     * @param index The index of the bucket.
+     * @return the highest value of the bucket.
+     */
+    private static long highestValueOf(final int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index - shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,304 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.util.Clock;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.ModifyAckDeadlineRequest;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the ack deadlines of outstanding messages from expiring while they
+ * are waiting for or going through a slow handler.
+ *
+ * <p>Every ack id is tracked from the moment it is pulled until it is
+ * removed. Leases which are about to expire are extended in batches with
+ * modifyAckDeadline calls, until the message has been held for the max
+ * total extension. On close, the remaining messages are nacked so that they
+ * are redelivered right away.</p>
+ */
+public final class LeaseManager implements Closeable {
+
+    /**
+     * A private logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(LeaseManager.class.getName());
+
+    /**
+     * Default max time in seconds a message is held by extending its lease.
+     */
+    public static final int DEFAULT_MAX_EXTENSION_SECONDS = 60 * 60;
+
+    /**
+     * Interval in milliseconds between the checks of the leases.
+     */
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Leases expiring within this many milliseconds are extended.
+     */
+    private static final long RENEW_MARGIN_MILLIS = 3000;
+
+    /**
+     * One second in milliseconds.
+     */
+    private static final long ONE_SECOND = 1000;
+
+    /**
+     * Cloud Pub/Sub client.
+     */
+    private final Pubsub client;
+
+    /**
+     * Fully qualified name of the subscription.
+     */
+    private final String subscriptionName;
+
+    /**
+     * Ack deadline in seconds given by every extension.
+     */
+    private final int ackDeadlineSeconds;
+
+    /**
+     * Max time in milliseconds a message is held by extending its lease.
+     */
+    private final long maxExtensionMillis;
+
+    /**
+     * Tells the time of the leases.
+     */
+    private final Clock clock;
+
+    /**
+     * Outstanding leases keyed by ack id.
+     */
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the periodic checks of the leases.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * A lease on a single outstanding message.
+     */
+    private static final class Lease {
+        /**
+         * When the message was pulled.
+         */
+        private final long receivedMillis;
+
+        /**
+         * When the current ack deadline expires.
+         */
+        private volatile long expiresMillis;
+
+        /**
+         * A constructor.
+         *
+         * @param receivedMillis When the message was pulled.
+         * @param expiresMillis When the initial ack deadline expires.
+         */
+        Lease(final long receivedMillis, final long expiresMillis) {
+            this.receivedMillis = receivedMillis;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+
+    /**
+     * A constructor.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param subscriptionName Fully qualified name of the subscription.
+     * @param ackDeadlineSeconds Ack deadline of the subscription in seconds;
+     * also used as the length of every extension.
+     * @param maxExtensionSeconds Max time in seconds a message is held by
+     * extending its lease.
+     */
+    public LeaseManager(final Pubsub client, final String subscriptionName,
+                        final int ackDeadlineSeconds,
+                        final long maxExtensionSeconds) {
+        this(client, subscriptionName, ackDeadlineSeconds, maxExtensionSeconds,
+                Clock.SYSTEM);
+    }
+
+    /**
+     * A constructor with a given clock, for tests.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param subscriptionName Fully qualified name of the subscription.
+     * @param ackDeadlineSeconds Ack deadline of the subscription in seconds;
+     * also used as the length of every extension.
+     * @param maxExtensionSeconds Max time in seconds a message is held by
+     * extending its lease.
+     * @param clock Tells the time of the leases.
+     */
+    LeaseManager(final Pubsub client, final String subscriptionName,
+                 final int ackDeadlineSeconds, final long maxExtensionSeconds,
+                 final Clock clock) {
+        Preconditions.checkArgument(
+                ackDeadlineSeconds * ONE_SECOND > RENEW_MARGIN_MILLIS,
+                "ack deadline is too short");
+        Preconditions.checkArgument(maxExtensionSeconds >= 0,
+                "max extension must not be negative");
+        this.client = Preconditions.checkNotNull(client);
+        this.subscriptionName = Preconditions.checkNotNull(subscriptionName);
+        this.ackDeadlineSeconds = ackDeadlineSeconds;
+        this.maxExtensionMillis = maxExtensionSeconds * ONE_SECOND;
+        this.clock = Preconditions.checkNotNull(clock);
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("lease-manager-%d")
+                        .setDaemon(true)
+                        .build());
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                extendExpiringLeases();
+            }
+        }, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts tracking a message which has just been pulled.
+     *
+     * @param ackId Ack id of the message.
+     */
+    public void add(final String ackId) {
+        long now = clock.currentTimeMillis();
+        leases.put(ackId,
+                new Lease(now, now + ackDeadlineSeconds * ONE_SECOND));
+    }
+
+    /**
+     * Stops tracking a message, typically right before it is acknowledged.
+     *
+     * @param ackId Ack id of the message.
+     */
+    public void remove(final String ackId) {
+        leases.remove(ackId);
+    }
+
+    /**
+     * Stops tracking a message and nacks it so that it is redelivered right
+     * away.
+     *
+     * @param ackId Ack id of the message.
+     * @throws IOException when Cloud Pub/Sub API calls fail.
+     */
+    public void nack(final String ackId) throws IOException {
+        nack(Collections.singletonList(ackId));
+    }
+
+    /**
+     * Stops tracking messages and nacks them in batches so that they are
+     * redelivered right away.
+     *
+     * @param ackIds Ack ids of the messages.
+     * @throws IOException when Cloud Pub/Sub API calls fail.
+     */
+    public void nack(final List<String> ackIds) throws IOException {
+        for (String ackId : ackIds) {
+            leases.remove(ackId);
+        }
+        modifyAckDeadline(ackIds, 0);
+    }
+
+    /**
+     * Returns the number of messages being tracked.
+     *
+     * @return the number of outstanding messages.
+     */
+    public int getOutstandingCount() {
+        return leases.size();
+    }
+
+    /**
+     * Stops extending the leases and nacks all the outstanding messages.
+     *
+     * @throws IOException when Cloud Pub/Sub API calls fail.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<String> ackIds = new ArrayList<>(leases.keySet());
+        leases.clear();
+        if (!ackIds.isEmpty()) {
+            LOG.info("Nacking " + ackIds.size() + " outstanding messages");
+            modifyAckDeadline(ackIds, 0);
+        }
+    }
+
+    /**
+     * Extends the leases which are about to expire, and gives up the ones
+     * which have reached the max total extension. Runs every second in the
+     * background.
+     */
+    void extendExpiringLeases() {
+        long now = clock.currentTimeMillis();
+        List<String> ackIds = new ArrayList<>();
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            Lease lease = entry.getValue();
+            if (lease.expiresMillis - now > RENEW_MARGIN_MILLIS) {
+                continue;
+            }
+            if (now - lease.receivedMillis >= maxExtensionMillis) {
+                // Let it expire; the message will be redelivered.
+                leases.remove(entry.getKey());
+                LOG.fine("Gave up extending " + entry.getKey());
+                continue;
+            }
+            lease.expiresMillis = now + ackDeadlineSeconds * ONE_SECOND;
+            ackIds.add(entry.getKey());
+        }
+        if (ackIds.isEmpty()) {
+            return;
+        }
+        try {
+            modifyAckDeadline(ackIds, ackDeadlineSeconds);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to extend the ack deadline of "
+                    + ackIds.size() + " messages", e);
+        }
+    }
+
+    /**
+     * Sets the ack deadline of the given messages, in batches.
+     *
+     * @param ackIds Ack ids of the messages.
+     * @param seconds New ack deadline in seconds; 0 nacks the messages.
+     * @throws IOException when Cloud Pub/Sub API calls fail.
+     */
+    private void modifyAckDeadline(final List<String> ackIds,
+                                   final int seconds) throws IOException {
+        for (List<String> batch
+                : Lists.partition(ackIds, PubsubClients.BATCH_SIZE)) {
+            ModifyAckDeadlineRequest request = new ModifyAckDeadlineRequest()
+                    .setAckIds(batch)
+                    .setAckDeadlineSeconds(seconds);
+            client.projects().subscriptions()
+                    .modifyAckDeadline(subscriptionName, request)
+                    .execute();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.google.cloud.pubsub.client.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers the MXBeans of the package with the platform MBean server.
+ */
+final class MXBeans {
+
+    /**
+     * A private logger.
+     */
+    private static final Logger LOG = Logger.getLogger(MXBeans.class.getName());
+
+    /**
+     * Domain of the names of the MXBeans.
+     */
+    private static final String DOMAIN = MXBeans.class.getPackage().getName();
+
+    /**
+     * Prevents initialization.
+     */
+    private MXBeans() {
+    }
+
+    /**
+     * Registers the MXBean of an API method, unless one is registered under
+     * the same name already. Failures are logged, not thrown.
+     *
+     * @param mxBean The MXBean.
+     * @param type The type of the MXBean, e.g. "RequestMetrics".
+     * @param method The name of the API method, e.g. "pull".
+     */
+    static void register(final Object mxBean, final String type,
+                         final String method) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=" + type
+                    + ",method=" + method);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(mxBean, name);
+            }
+        } catch (JMException | SecurityException | LinkageError e) {
+            // LinkageError: JMX is not available on App Engine.
+            LOG.log(Level.WARNING, "Failed to register the " + type
+                    + " of " + method, e);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands pulled messages to a {@link MessageHandler} on a bounded pool of
+ * threads.
+ *
+ * <p>By default all the threads share one queue. When an ordering
+ * attribute is given, every thread gets its own queue instead, and the
+ * messages are routed to a queue by the hash of the value of that
+ * attribute, so that the messages sharing a value are handled one by one
+ * in the order they were dispatched.</p>
+ */
+public final class MessageDispatcher implements Closeable {
+
+    /**
+     * Default max number of messages waiting for a thread.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 2 * PubsubClients.BATCH_SIZE;
+
+    /**
+     * Receives the outcome of handling a message.
+     */
+    public interface Callback {
+        /**
+         * Called when the handler returned normally.
+         *
+         * @param message The handled message.
+         */
+        void onHandled(ReceivedMessage message);
+
+        /**
+         * Called when the handler threw.
+         *
+         * @param message The message which failed.
+         * @param cause What the handler threw.
+         */
+        void onFailed(ReceivedMessage message, Exception cause);
+    }
+
+    /**
+     * A message waiting for a thread, with its callback.
+     */
+    private static final class Task {
+        /**
+         * The message to handle.
+         */
+        private final ReceivedMessage message;
+
+        /**
+         * Receives the outcome.
+         */
+        private final Callback callback;
+
+        /**
+         * A constructor.
+         *
+         * @param message The message to handle.
+         * @param callback Receives the outcome.
+         */
+        Task(final ReceivedMessage message, final Callback callback) {
+            this.message = message;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Processes the messages.
+     */
+    private final MessageHandler handler;
+
+    /**
+     * Attribute whose value orders the messages, or null.
+     */
+    private final String orderingKey;
+
+    /**
+     * One shared queue, or one queue per thread when ordering.
+     */
+    private final List<BlockingQueue<Task>> queues;
+
+    /**
+     * Runs the handler threads.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * A constructor.
+     *
+     * @param handler Processes the messages.
+     * @param threads Number of handler threads.
+     * @param queueSize Max number of messages waiting for a thread.
+     * @param orderingKey Attribute whose value orders the messages, or null
+     * for no ordering.
+     */
+    public MessageDispatcher(final MessageHandler handler, final int threads,
+                             final int queueSize, final String orderingKey) {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        Preconditions.checkArgument(queueSize > 0,
+                "queue size must be positive");
+        this.handler = Preconditions.checkNotNull(handler);
+        this.orderingKey = orderingKey;
+        this.queues = new ArrayList<>();
+        if (orderingKey == null) {
+            queues.add(new ArrayBlockingQueue<Task>(queueSize));
+        } else {
+            int laneSize = Math.max(1, queueSize / threads);
+            for (int i = 0; i < threads; i++) {
+                queues.add(new ArrayBlockingQueue<Task>(laneSize));
+            }
+        }
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("message-handler-%d")
+                        .setDaemon(true)
+                        .build());
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Worker(queues.get(i % queues.size())));
+        }
+    }
+
+    /**
+     * Queues a message for the handler, blocking while the queue is full.
+     *
+     * @param message The message to handle.
+     * @param callback Receives the outcome.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    public void dispatch(final ReceivedMessage message,
+                         final Callback callback)
+            throws InterruptedException {
+        queues.get(laneOf(message)).put(new Task(message, callback));
+    }
+
+    /**
+     * Stops the handler threads, dropping the messages still queued.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Chooses the queue for a message.
+     *
+     * @param message The message to route.
+     * @return the index of the queue.
+     */
+    private int laneOf(final ReceivedMessage message) {
+        if (queues.size() == 1) {
+            return 0;
+        }
+        String key = null;
+        PubsubMessage pubsubMessage = message.getMessage();
+        if (pubsubMessage != null) {
+            Map<String, String> attributes = pubsubMessage.getAttributes();
+            if (attributes != null) {
+                key = attributes.get(orderingKey);
+            }
+        }
+        if (key == null) {
+            // Unordered messages are spread over all the queues.
+            key = message.getAckId();
+        }
+        return (key.hashCode() & Integer.MAX_VALUE) % queues.size();
+    }
+
+    /**
+     * Takes messages from a queue and runs the handler on them.
+     */
+    private final class Worker implements Runnable {
+        /**
+         * The queue to take the messages from.
+         */
+        private final BlockingQueue<Task> queue;
+
+        /**
+         * A constructor.
+         *
+         * @param queue The queue to take the messages from.
+         */
+        Worker(final BlockingQueue<Task> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    PubsubMessage pubsubMessage = task.message.getMessage();
+                    if (pubsubMessage != null) {
+                        handler.handle(pubsubMessage);
+                    }
+                } catch (Exception e) {
+                    task.callback.onFailed(task.message, e);
+                    if (e instanceof InterruptedException) {
+                        // Keeps close() from waiting for the queued tasks.
+                        Thread.currentThread().interrupt();
+                    }
+                    continue;
+                }
+                task.callback.onHandled(task.message);
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.services.pubsub.model.PubsubMessage;
+
+/**
+ * Processes messages pulled from a subscription.
+ *
+ * <p>Implementations may be called from several threads at once, unless
+ * the messages are dispatched in order of an attribute, in which case the
+ * messages sharing a value of that attribute are handled one by one.</p>
+ */
+public interface MessageHandler {
+
+    /**
+     * Processes a message. The message is acknowledged when this method
+     * returns normally, and nacked for redelivery when it throws.
+     *
+     * @param message The message to process.
+     * @throws Exception when the message could not be processed.
+     */
+    void handle(PubsubMessage message) throws Exception;
+}
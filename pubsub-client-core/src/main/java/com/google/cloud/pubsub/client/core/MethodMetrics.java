@@ -0,0 +1,223 @@
+package com.google.cloud.pubsub.client.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the calls to one Cloud Pub/Sub API method, and records the
+ * latency of their attempts. Safe for use by several threads.
+ */
+public final class MethodMetrics implements MethodMetricsMXBean {
+
+    /**
+     * Microseconds in a millisecond.
+     */
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    /**
+     * The name of the method.
+     */
+    private final String method;
+
+    /**
+     * Latency of the attempts in microseconds.
+     */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Number of attempts.
+     */
+    private final AtomicLong attempts = new AtomicLong();
+
+    /**
+     * Number of retries.
+     */
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * Number of give-ups.
+     */
+    private final AtomicLong giveUps = new AtomicLong();
+
+    /**
+     * Number of failures not worth a retry.
+     */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Number of attempts without a response.
+     */
+    private final AtomicLong ioErrors = new AtomicLong();
+
+    /**
+     * Time slept before retries, in milliseconds.
+     */
+    private final AtomicLong backOffMillis = new AtomicLong();
+
+    /**
+     * Number of responses by status code.
+     */
+    private final ConcurrentMap<Integer, AtomicLong> statusCodes =
+            new ConcurrentHashMap<>();
+
+    /**
+     * A constructor.
+     *
+     * @param method The name of the method.
+     */
+    MethodMetrics(final String method) {
+        this.method = method;
+    }
+
+    /**
+     * Records the start of an attempt.
+     */
+    void recordAttempt() {
+        attempts.incrementAndGet();
+    }
+
+    /**
+     * Records a response.
+     *
+     * @param statusCode The HTTP status code.
+     * @param latencyMicros The latency of the attempt.
+     */
+    void recordResponse(final int statusCode, final long latencyMicros) {
+        latency.record(latencyMicros);
+        AtomicLong count = statusCodes.get(statusCode);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = statusCodes.putIfAbsent(statusCode, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Records an attempt which failed without a response.
+     *
+     * @param latencyMicros The latency of the attempt.
+     */
+    void recordIOError(final long latencyMicros) {
+        latency.record(latencyMicros);
+        ioErrors.incrementAndGet();
+    }
+
+    /**
+     * Records a failed attempt which is retried.
+     */
+    void recordRetry() {
+        retries.incrementAndGet();
+    }
+
+    /**
+     * Records a failed attempt which was worth a retry, but is not retried
+     * for lack of attempts or retry budget.
+     */
+    void recordGiveUp() {
+        giveUps.incrementAndGet();
+    }
+
+    /**
+     * Records a failed attempt which is not worth a retry, e.g. a 404.
+     */
+    void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * Records a sleep before a retry.
+     *
+     * @param millis The time slept.
+     */
+    void recordBackOff(final long millis) {
+        backOffMillis.addAndGet(millis);
+    }
+
+    /**
+     * Returns the name of the method.
+     *
+     * @return the name, e.g. "pull".
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public long getGiveUps() {
+        return giveUps.get();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public long getIOErrors() {
+        return ioErrors.get();
+    }
+
+    @Override
+    public long getBackOffMillis() {
+        return backOffMillis.get();
+    }
+
+    @Override
+    public Map<Integer, Long> getStatusCodes() {
+        Map<Integer, Long> result = new TreeMap<>();
+        for (Map.Entry<Integer, AtomicLong> entry : statusCodes.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    @Override
+    public double getMeanLatencyMillis() {
+        return latency.getMean() / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50LatencyMillis() {
+        return latency.getPercentile(50) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99LatencyMillis() {
+        return latency.getPercentile(99) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxLatencyMillis() {
+        return latency.getMax() / MICROS_PER_MILLI;
+    }
+
+    /**
+     * Returns a one line summary.
+     *
+     * @return a human readable summary.
+     */
+    public String getSummary() {
+        return String.format("%s: %d attempts, %d retries, %d give-ups, "
+                + "%d failures, %d I/O errors, %d ms backing off, status %s, "
+                + "latency %s",
+                method, getAttempts(), getRetries(), getGiveUps(),
+                getFailures(), getIOErrors(), getBackOffMillis(),
+                getStatusCodes(), latency.getSummary());
+    }
+}
@@ -0,0 +1,89 @@
+package com.google.cloud.pubsub.client.core;
+
+import java.util.Map;
+
+/**
+ * The metrics of the calls to one Cloud Pub/Sub API method, as exported
+ * over JMX.
+ */
+public interface MethodMetricsMXBean {
+
+    /**
+     * Returns the number of HTTP requests sent, retries included.
+     *
+     * @return the number of attempts.
+     */
+    long getAttempts();
+
+    /**
+     * Returns the number of attempts which were retried.
+     *
+     * @return the number of retries.
+     */
+    long getRetries();
+
+    /**
+     * Returns the number of calls which failed with a server error,
+     * throttling or an I/O error, and ran out of attempts or retry budget.
+     *
+     * @return the number of give-ups.
+     */
+    long getGiveUps();
+
+    /**
+     * Returns the number of calls which failed with an error not worth a
+     * retry, such as a 404.
+     *
+     * @return the number of failures.
+     */
+    long getFailures();
+
+    /**
+     * Returns the number of attempts which failed without a response.
+     *
+     * @return the number of I/O errors.
+     */
+    long getIOErrors();
+
+    /**
+     * Returns the total time slept before retries.
+     *
+     * @return the time in milliseconds.
+     */
+    long getBackOffMillis();
+
+    /**
+     * Returns the number of responses by HTTP status code.
+     *
+     * @return the counts by status code.
+     */
+    Map<Integer, Long> getStatusCodes();
+
+    /**
+     * Returns the mean latency of the attempts.
+     *
+     * @return the latency in milliseconds.
+     */
+    double getMeanLatencyMillis();
+
+    /**
+     * Returns the median latency of the attempts.
+     *
+     * @return the latency in milliseconds.
+     */
+    double getP50LatencyMillis();
+
+    /**
+     * Returns the 99th percentile of the latency of the attempts.
+     *
+     * @return the latency in milliseconds.
+     */
+    double getP99LatencyMillis();
+
+    /**
+     * Returns the max latency of the attempts.
+     *
+     * @return the latency in milliseconds.
+     */
+    double getMaxLatencyMillis();
+}
@@ -0,0 +1,399 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.api.services.pubsub.model.PullResponse;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.api.services.pubsub.model.Subscription;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps pulling messages from a subscription with a pipeline of three
+ * stages: concurrent pulls, a {@link MessageDispatcher} which runs the
+ * handler on the messages, and an {@link AckBatcher} which sends the
+ * acknowledgements.
+ *
+ * <p>The size of the pulls and the number of pulls in flight, up to the
+ * given concurrency, are adapted by a {@link PullController}.</p>
+ *
+ * <p>The pull stage blocks when the dispatcher queue is full, and a
+ * {@link FlowController} limits the number and the size of the messages
+ * pulled but not acknowledged yet, so that the memory used stays bounded
+ * whatever the backlog. A {@link LeaseManager} keeps the messages from
+ * expiring while they wait in the queue or in the handler, and nacks them
+ * when the pipeline stops.</p>
+ */
+public final class PipelinedPuller {
+
+    /**
+     * A private logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(PipelinedPuller.class.getName());
+
+    /**
+     * Default max number of pull requests kept in flight.
+     */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /**
+     * Ack deadline used when the subscription doesn't tell its own.
+     */
+    private static final int DEFAULT_ACK_DEADLINE_SECONDS = 10;
+
+    /**
+     * Max time in milliseconds to wait for the pipeline to stop on exit.
+     */
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Cloud Pub/Sub client.
+     */
+    private final Pubsub client;
+
+    /**
+     * Fully qualified name of the subscription.
+     */
+    private final String subscriptionName;
+
+    /**
+     * Max number of pull requests kept in flight.
+     */
+    private final int concurrency;
+
+    /**
+     * Runs the handler on the pulled messages.
+     */
+    private final MessageDispatcher dispatcher;
+
+    /**
+     * Max time in seconds the lease of a message is extended.
+     */
+    private final long maxExtensionSeconds;
+
+    /**
+     * Bounds the messages pulled but not acknowledged yet.
+     */
+    private final FlowController flowController;
+
+    /**
+     * Adapts the size and the number of the pulls.
+     */
+    private final PullController pullController;
+
+    /**
+     * Acknowledges the processed messages.
+     */
+    private final AckBatcher ackBatcher;
+
+    /**
+     * Extends the leases of the outstanding messages; created by run().
+     */
+    private LeaseManager leaseManager;
+
+    /**
+     * A constructor.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param subscriptionName Fully qualified name of the subscription.
+     * @param dispatcher Runs the handler on the pulled messages; closed
+     * when the pipeline stops.
+     * @param concurrency Max number of pull requests kept in flight.
+     * @param maxExtensionSeconds Max time in seconds the lease of a message
+     * is extended.
+     * @param flowController Bounds the messages pulled but not acknowledged
+     * yet.
+     */
+    public PipelinedPuller(final Pubsub client, final String subscriptionName,
+                           final MessageDispatcher dispatcher,
+                           final int concurrency,
+                           final long maxExtensionSeconds,
+                           final FlowController flowController) {
+        Preconditions.checkArgument(concurrency > 0,
+                "concurrency must be positive");
+        this.client = Preconditions.checkNotNull(client);
+        this.subscriptionName = Preconditions.checkNotNull(subscriptionName);
+        this.dispatcher = Preconditions.checkNotNull(dispatcher);
+        this.concurrency = concurrency;
+        this.maxExtensionSeconds = maxExtensionSeconds;
+        this.flowController = Preconditions.checkNotNull(flowController);
+        this.pullController = new PullController(PubsubClients.BATCH_SIZE,
+                concurrency);
+        this.ackBatcher = new AckBatcher(client, subscriptionName);
+    }
+
+    /**
+     * Runs the pipeline until one of the stages fails or the JVM shuts
+     * down.
+     *
+     * @throws IOException when Cloud Pub/Sub API calls fail.
+     */
+    public void run() throws IOException {
+        Subscription subscription = client.projects().subscriptions()
+                .get(subscriptionName)
+                .execute();
+        int ackDeadlineSeconds = DEFAULT_ACK_DEADLINE_SECONDS;
+        if (subscription.getAckDeadlineSeconds() != null) {
+            ackDeadlineSeconds = subscription.getAckDeadlineSeconds();
+        }
+        leaseManager = new LeaseManager(client, subscriptionName,
+                ackDeadlineSeconds, maxExtensionSeconds);
+        final Thread runThread = Thread.currentThread();
+        Thread shutdownHook = new Thread() {
+            @Override
+            public void run() {
+                // Lets the pipeline stop and nack what it holds.
+                runThread.interrupt();
+                try {
+                    runThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                concurrency,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("pipelined-puller-%d")
+                        .setDaemon(true)
+                        .build());
+        CompletionService<Void> stages =
+                new ExecutorCompletionService<>(executor);
+        for (int i = 0; i < concurrency; i++) {
+            stages.submit(new PullStage());
+        }
+        boolean interrupted = false;
+        try {
+            // Every stage loops forever, so the first one to finish has
+            // either failed or been interrupted.
+            stages.take().get();
+        } catch (InterruptedException e) {
+            // Restored after the cleanup, which must not be cut short.
+            interrupted = true;
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            // The stages must be done with the leases before they are
+            // nacked.
+            awaitTermination(executor);
+            dispatcher.close();
+            try {
+                leaseManager.close();
+            } finally {
+                ackBatcher.close();
+            }
+            removeShutdownHook(shutdownHook);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits for an executor to terminate after its shutdown.
+     *
+     * @param executor The executor.
+     */
+    private static void awaitTermination(final ExecutorService executor) {
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes the shutdown hook unless the JVM is already shutting down.
+     *
+     * @param shutdownHook The hook to remove.
+     */
+    private static void removeShutdownHook(final Thread shutdownHook) {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            LOG.fine("Shutting down");
+        }
+    }
+
+    /**
+     * Returns the size a message counts for in the flow controller.
+     *
+     * @param message A pulled message.
+     * @return the estimated size in bytes.
+     */
+    private static int sizeOf(final ReceivedMessage message) {
+        if (message.getMessage() == null) {
+            return 0;
+        }
+        return BatchingPublisher.sizeOf(message.getMessage());
+    }
+
+    /**
+     * Pulls messages and hands them to the dispatcher.
+     */
+    private final class PullStage
+            implements Callable<Void>, MessageDispatcher.Callback {
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            PullRequest pullRequest = new PullRequest()
+                    .setReturnImmediately(false);
+            while (!Thread.currentThread().isInterrupted()) {
+                // Blocks while enough pulls are in flight.
+                int batchSize = pullController.beginPull();
+                int reserved = 0;
+                int received = 0;
+                long latencyNanos = 0;
+                long blockedNanos = 0;
+                try {
+                    long start = System.nanoTime();
+                    // Blocks while too many messages are outstanding.
+                    reserved = flowController.reserve(batchSize);
+                    pullRequest.setMaxMessages(reserved);
+                    long pullStart = System.nanoTime();
+                    List<ReceivedMessage> receivedMessages =
+                            pull(pullRequest, reserved);
+                    long pullEnd = System.nanoTime();
+                    latencyNanos = pullEnd - pullStart;
+                    if (receivedMessages != null) {
+                        received = receivedMessages.size();
+                        dispatch(receivedMessages);
+                    }
+                    blockedNanos = pullStart - start
+                            + System.nanoTime() - pullEnd;
+                } finally {
+                    pullController.endPull(reserved, received,
+                            TimeUnit.NANOSECONDS.toMillis(latencyNanos),
+                            TimeUnit.NANOSECONDS.toMillis(blockedNanos));
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Pulls messages and records them in the flow controller.
+         *
+         * @param pullRequest The request, with its max number of messages
+         * set.
+         * @param reserved The number of messages reserved for the pull.
+         * @return the messages received, or null.
+         * @throws IOException when Cloud Pub/Sub API calls fail.
+         */
+        private List<ReceivedMessage> pull(final PullRequest pullRequest,
+                                           final int reserved)
+                throws IOException {
+            List<ReceivedMessage> receivedMessages = null;
+            try {
+                PullResponse pullResponse = client.projects()
+                        .subscriptions()
+                        .pull(subscriptionName, pullRequest)
+                        .execute();
+                receivedMessages = pullResponse.getReceivedMessages();
+            } finally {
+                recordReceived(reserved, receivedMessages);
+            }
+            return receivedMessages;
+        }
+
+        /**
+         * Hands pulled messages to the dispatcher; when interrupted, nacks
+         * the ones it has not handed yet.
+         *
+         * @param receivedMessages The messages.
+         * @throws InterruptedException when interrupted while waiting.
+         */
+        private void dispatch(final List<ReceivedMessage> receivedMessages)
+                throws InterruptedException {
+            for (int i = 0; i < receivedMessages.size(); i++) {
+                ReceivedMessage receivedMessage = receivedMessages.get(i);
+                leaseManager.add(receivedMessage.getAckId());
+                try {
+                    // Blocks while the handler is behind.
+                    dispatcher.dispatch(receivedMessage, this);
+                } catch (InterruptedException e) {
+                    nack(receivedMessages.subList(i,
+                            receivedMessages.size()));
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Nacks messages which will not reach the handler, so that they are
+         * redelivered right away.
+         *
+         * @param receivedMessages The messages.
+         */
+        private void nack(final List<ReceivedMessage> receivedMessages) {
+            List<String> ackIds = new ArrayList<>();
+            for (ReceivedMessage receivedMessage : receivedMessages) {
+                ackIds.add(receivedMessage.getAckId());
+                flowController.release(sizeOf(receivedMessage));
+            }
+            try {
+                leaseManager.nack(ackIds);
+            } catch (IOException e) {
+                // The messages are redelivered after their deadline anyway.
+                LOG.log(Level.WARNING, "Failed to nack " + ackIds.size()
+                        + " messages", e);
+            }
+        }
+
+        /**
+         * Records the messages received by a pull in the flow controller.
+         *
+         * @param reserved The number of messages reserved for the pull.
+         * @param receivedMessages The messages received, or null.
+         */
+        private void recordReceived(
+                final int reserved,
+                final List<ReceivedMessage> receivedMessages) {
+            int count = 0;
+            long size = 0;
+            if (receivedMessages != null) {
+                count = receivedMessages.size();
+                for (ReceivedMessage receivedMessage : receivedMessages) {
+                    size += sizeOf(receivedMessage);
+                }
+            }
+            flowController.received(reserved, count, size);
+        }
+
+        @Override
+        public void onHandled(final ReceivedMessage message) {
+            leaseManager.remove(message.getAckId());
+            ackBatcher.add(message.getAckId());
+            flowController.release(sizeOf(message));
+        }
+
+        @Override
+        public void onFailed(final ReceivedMessage message,
+                             final Exception cause) {
+            LOG.log(Level.WARNING, "Failed to handle a message", cause);
+            try {
+                leaseManager.nack(message.getAckId());
+            } catch (IOException e) {
+                // The message is redelivered after its deadline anyway.
+                LOG.log(Level.WARNING, "Failed to nack a message", e);
+            }
+            flowController.release(sizeOf(message));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+
+/**
+ * Builds the Cloud Pub/Sub clients of the samples, all with the same
+ * retries, metrics and circuit breakers.
+ */
+public final class PubsubClients {
+
+    /**
+     * Max number of messages pulled or acknowledged in a single call.
+     */
+    public static final int BATCH_SIZE = 1000;
+
+    /**
+     * Prevents instantiation.
+     */
+    private PubsubClients() {
+    }
+
+    /**
+     * Returns the request initializer of the clients: a
+     * {@link CircuitBreakerInitializer} in front of a
+     * {@link RetryHttpInitializerWrapper}. Clients of other versions of the
+     * API can use it too.
+     *
+     * @param credential Authorizes the requests.
+     * @return a new request initializer.
+     */
+    public static HttpRequestInitializer newRequestInitializer(
+            final Credential credential) {
+        return new CircuitBreakerInitializer(
+                new RetryHttpInitializerWrapper(credential));
+    }
+
+    /**
+     * Builds a new Pubsub client with the application default credentials
+     * and returns it. The credential is shared by all the clients and
+     * refreshed in the background.
+     *
+     * @param httpTransport HttpTransport for Pubsub client.
+     * @param jsonFactory JsonFactory for Pubsub client.
+     * @param applicationName Name attached to the API requests.
+     * @return Pubsub client.
+     * @throws IOException when we can not get the default credentials.
+     */
+    public static Pubsub getClient(final HttpTransport httpTransport,
+                                   final JsonFactory jsonFactory,
+                                   final String applicationName)
+            throws IOException {
+        Preconditions.checkNotNull(httpTransport);
+        Preconditions.checkNotNull(jsonFactory);
+        Credential credential = CredentialCache.getApplicationDefault(
+                httpTransport, jsonFactory);
+        return new Pubsub.Builder(httpTransport, jsonFactory,
+                newRequestInitializer(credential))
+                .setApplicationName(applicationName)
+                .build();
+    }
+
+    /**
+     * Builds a new Pubsub client for another endpoint than the production
+     * one, such as a local fake, and returns it. No credentials are sent.
+     *
+     * @param httpTransport HttpTransport for Pubsub client.
+     * @param jsonFactory JsonFactory for Pubsub client.
+     * @param rootUrl Root URL of the API, e.g. "http://localhost:8085/".
+     * @param applicationName Name attached to the API requests.
+     * @return Pubsub client.
+     */
+    public static Pubsub getClient(final HttpTransport httpTransport,
+                                   final JsonFactory jsonFactory,
+                                   final String rootUrl,
+                                   final String applicationName) {
+        Preconditions.checkNotNull(httpTransport);
+        Preconditions.checkNotNull(jsonFactory);
+        String normalizedRootUrl = rootUrl;
+        if (!normalizedRootUrl.endsWith("/")) {
+            normalizedRootUrl += "/";
+        }
+        // An access token which never expires, so it is never refreshed.
+        GoogleCredential credential = new GoogleCredential()
+                .setAccessToken("unused")
+                .setExpirationTimeMilliseconds(Long.MAX_VALUE);
+        return new Pubsub.Builder(httpTransport, jsonFactory,
+                newRequestInitializer(credential))
+                .setRootUrl(normalizedRootUrl)
+                .setApplicationName(applicationName)
+                .build();
+    }
+}
@@ -0,0 +1,150 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tunes the size of the pulls and the number of pulls in flight from what
+ * the previous pulls observed, with additive increases and multiplicative
+ * decreases.
+ *
+ * <p>Full pulls which come back quickly grow the batch size by a fixed
+ * step, then, once it reaches the max, the number of pulls in flight by
+ * one. Slow pulls halve the batch size. Empty pulls, as well as pulls whose
+ * messages waited longer for the handler than the pull itself took, halve
+ * the number of pulls in flight, so that a sparse or handler bound
+ * subscription is served by a few long polls only.</p>
+ */
+public final class PullController {
+
+    /**
+     * A private logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(PullController.class.getName());
+
+    /**
+     * Smallest batch size asked for.
+     */
+    static final int MIN_BATCH_SIZE = 10;
+
+    /**
+     * Batch size asked for first, and step of the additive increases.
+     */
+    static final int BATCH_SIZE_STEP = 100;
+
+    /**
+     * Pull latency in milliseconds above which the batch size is decreased.
+     */
+    static final long LATENCY_TARGET_MILLIS = 2000;
+
+    /**
+     * Largest batch size asked for.
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Largest number of pulls in flight.
+     */
+    private final int maxConcurrency;
+
+    /**
+     * Current batch size; guarded by this.
+     */
+    private int batchSize;
+
+    /**
+     * Current number of pulls allowed in flight; guarded by this.
+     */
+    private int concurrency = 1;
+
+    /**
+     * Number of pulls in flight; guarded by this.
+     */
+    private int inFlight;
+
+    /**
+     * A constructor.
+     *
+     * @param maxBatchSize Largest batch size asked for.
+     * @param maxConcurrency Largest number of pulls in flight.
+     */
+    public PullController(final int maxBatchSize, final int maxConcurrency) {
+        Preconditions.checkArgument(maxBatchSize >= MIN_BATCH_SIZE,
+                "max batch size must be at least %s", MIN_BATCH_SIZE);
+        Preconditions.checkArgument(maxConcurrency > 0,
+                "max concurrency must be positive");
+        this.maxBatchSize = maxBatchSize;
+        this.maxConcurrency = maxConcurrency;
+        this.batchSize = Math.min(BATCH_SIZE_STEP, maxBatchSize);
+    }
+
+    /**
+     * Waits until another pull may be in flight and starts it.
+     *
+     * @return the number of messages the pull should ask for.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    public synchronized int beginPull() throws InterruptedException {
+        while (inFlight >= concurrency) {
+            wait();
+        }
+        inFlight++;
+        return batchSize;
+    }
+
+    /**
+     * Ends a pull started by {@link #beginPull()} and adapts the batch size
+     * and the concurrency to what it observed.
+     *
+     * @param requested The number of messages the pull asked for.
+     * @param received The number of messages it received.
+     * @param latencyMillis How long the pull call took.
+     * @param blockedMillis How long the messages waited for room in the
+     * flow controller and the handler queue.
+     */
+    public synchronized void endPull(final int requested, final int received,
+                                     final long latencyMillis,
+                                     final long blockedMillis) {
+        inFlight--;
+        int previousBatchSize = batchSize;
+        int previousConcurrency = concurrency;
+        if (received == 0 || blockedMillis > latencyMillis) {
+            concurrency = Math.max(1, concurrency / 2);
+        } else if (latencyMillis > LATENCY_TARGET_MILLIS) {
+            batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+        } else if (received >= requested) {
+            if (batchSize < maxBatchSize) {
+                batchSize = Math.min(maxBatchSize, batchSize + BATCH_SIZE_STEP);
+            } else if (concurrency < maxConcurrency) {
+                concurrency++;
+            }
+        }
+        if (batchSize != previousBatchSize
+                || concurrency != previousConcurrency) {
+            LOG.log(Level.FINE, "Pulling {0} messages with {1} requests",
+                    new Object[] {batchSize, concurrency});
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the current batch size.
+     *
+     * @return the number of messages a pull asks for.
+     */
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns the current number of pulls allowed in flight.
+     *
+     * @return the concurrency.
+     */
+    public synchronized int getConcurrency() {
+        return concurrency;
+    }
+}
@@ -0,0 +1,369 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the messages of a pull response one at a time, as they are parsed
+ * from the HTTP response, instead of building a PullResponse with all of
+ * them first.
+ *
+ * <p>The data of the current message is decoded from base64 into a buffer
+ * reused by all the messages, and exposed as a read-only view which is only
+ * valid until the next call to {@link #next()}. A pull of many messages
+ * therefore allocates neither a ReceivedMessage nor a PubsubMessage nor a
+ * byte array per message.</p>
+ *
+ * <pre>
+ * try (PullResponseReader reader =
+ *         PullResponseReader.pull(client, subscription, request)) {
+ *     while (reader.next()) {
+ *         process(reader.getData());
+ *         ackIds.add(reader.getAckId());
+ *     }
+ * }
+ * </pre>
+ */
+public final class PullResponseReader implements Closeable {
+
+    /**
+     * Initial size in bytes of the data buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    /**
+     * Value of the base64 characters, of both the standard and the URL safe
+     * alphabets, or -1.
+     */
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+                + "abcdefghijklmnopqrstuvwxyz0123456789+/";
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+        BASE64_VALUES['-'] = BASE64_VALUES['+'];
+        BASE64_VALUES['_'] = BASE64_VALUES['/'];
+    }
+
+    /**
+     * The HTTP response, disconnected on close, or null.
+     */
+    private final HttpResponse response;
+
+    /**
+     * The parser of the response body.
+     */
+    private final JsonParser parser;
+
+    /**
+     * Whether the parser is inside the receivedMessages array.
+     */
+    private boolean inMessages;
+
+    /**
+     * Whether the whole response has been read.
+     */
+    private boolean done;
+
+    /**
+     * Ack id of the current message.
+     */
+    private String ackId;
+
+    /**
+     * Id of the current message.
+     */
+    private String messageId;
+
+    /**
+     * Publish time of the current message.
+     */
+    private String publishTime;
+
+    /**
+     * Attributes of the current message, or null.
+     */
+    private Map<String, String> attributes;
+
+    /**
+     * Decoded data of the current message, at the start of the buffer.
+     */
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * Read-only view of the buffer.
+     */
+    private ByteBuffer dataView = ByteBuffer.wrap(buffer).asReadOnlyBuffer();
+
+    /**
+     * Whether the current message has data.
+     */
+    private boolean hasData;
+
+    /**
+     * A constructor.
+     *
+     * @param parser The parser of a PullResponse, closed with the reader.
+     */
+    public PullResponseReader(final JsonParser parser) {
+        this(null, parser);
+    }
+
+    /**
+     * A constructor.
+     *
+     * @param response The HTTP response, disconnected on close, or null.
+     * @param parser The parser of its body.
+     */
+    private PullResponseReader(final HttpResponse response,
+                               final JsonParser parser) {
+        this.response = response;
+        this.parser = Preconditions.checkNotNull(parser);
+    }
+
+    /**
+     * Sends a pull request and returns a reader of its response.
+     *
+     * @param client Cloud Pub/Sub client.
+     * @param subscriptionName Fully qualified name of the subscription.
+     * @param pullRequest The request.
+     * @return a reader, to be closed by the caller.
+     * @throws IOException when the pull fails.
+     */
+    public static PullResponseReader pull(final Pubsub client,
+                                          final String subscriptionName,
+                                          final PullRequest pullRequest)
+            throws IOException {
+        HttpResponse response = client.projects().subscriptions()
+                .pull(subscriptionName, pullRequest)
+                .executeUnparsed();
+        try {
+            return new PullResponseReader(response,
+                    client.getJsonFactory().createJsonParser(
+                            response.getContent(),
+                            response.getContentCharset()));
+        } catch (IOException | RuntimeException e) {
+            response.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves to the next message.
+     *
+     * @return false when there are no more messages.
+     * @throws IOException when the response can't be read or parsed.
+     */
+    public boolean next() throws IOException {
+        if (done) {
+            return false;
+        }
+        if (!inMessages && !findMessages()) {
+            done = true;
+            return false;
+        }
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.START_OBJECT) {
+            // The end of the array.
+            done = true;
+            return false;
+        }
+        ackId = null;
+        messageId = null;
+        publishTime = null;
+        attributes = null;
+        hasData = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            token = parser.nextToken();
+            if ("ackId".equals(field) && token == JsonToken.VALUE_STRING) {
+                ackId = parser.getText();
+            } else if ("message".equals(field)
+                    && token == JsonToken.START_OBJECT) {
+                readMessage();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the parser into the receivedMessages array.
+     *
+     * @return false when the response has no messages.
+     * @throws IOException when the response can't be read or parsed.
+     */
+    private boolean findMessages() throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == null) {
+            token = parser.nextToken();
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new IOException("Not a PullResponse: " + token);
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            token = parser.nextToken();
+            if ("receivedMessages".equals(field)
+                    && token == JsonToken.START_ARRAY) {
+                inMessages = true;
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    /**
+     * Reads the fields of a PubsubMessage object.
+     *
+     * @throws IOException when the response can't be read or parsed.
+     */
+    private void readMessage() throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_STRING) {
+                switch (field) {
+                    case "data":
+                        decodeData(parser.getText());
+                        break;
+                    case "messageId":
+                        messageId = parser.getText();
+                        break;
+                    case "publishTime":
+                        publishTime = parser.getText();
+                        break;
+                    default:
+                        break;
+                }
+            } else if ("attributes".equals(field)
+                    && token == JsonToken.START_OBJECT) {
+                attributes = new HashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String key = parser.getCurrentName();
+                    parser.nextToken();
+                    attributes.put(key, parser.getText());
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Decodes base64 text into the buffer, growing it if needed.
+     *
+     * @param text The base64 text, padded or not.
+     * @throws IOException when the text is not base64.
+     */
+    private void decodeData(final String text) throws IOException {
+        int maxLength = text.length() / 4 * 3 + 2;
+        if (buffer.length < maxLength) {
+            buffer = new byte[Math.max(maxLength, buffer.length * 2)];
+            dataView = ByteBuffer.wrap(buffer).asReadOnlyBuffer();
+        }
+        int length = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            int value = -1;
+            if (c < BASE64_VALUES.length) {
+                value = BASE64_VALUES[c];
+            }
+            if (value < 0) {
+                throw new IOException("Invalid base64 data");
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                buffer[length++] = (byte) (bits >> bitCount);
+            }
+        }
+        dataView.clear();
+        dataView.limit(length);
+        hasData = true;
+    }
+
+    /**
+     * Returns the ack id of the current message.
+     *
+     * @return the ack id.
+     */
+    public String getAckId() {
+        return ackId;
+    }
+
+    /**
+     * Returns the id of the current message.
+     *
+     * @return the message id.
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Returns the publish time of the current message.
+     *
+     * @return an RFC 3339 timestamp.
+     */
+    public String getPublishTime() {
+        return publishTime;
+    }
+
+    /**
+     * Returns the attributes of the current message.
+     *
+     * @return the attributes, or null if it has none.
+     */
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Returns the data of the current message, rewound. Every call returns
+     * the same view, and its content is only valid until the next call to
+     * {@link #next()}.
+     *
+     * @return a read-only view of the data, or null if it has none.
+     */
+    public ByteBuffer getData() {
+        if (!hasData) {
+            return null;
+        }
+        dataView.rewind();
+        return dataView;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            parser.close();
+        } finally {
+            if (response != null) {
+                response.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link MethodMetrics} of the Cloud Pub/Sub API methods called by a
+ * process, filled in by {@link RetryHttpInitializerWrapper}.
+ *
+ * <p>The metrics of the default instance are registered as MXBeans named
+ * {@code com.google.cloud.pubsub.client.core:type=RequestMetrics,
+ * method=pull} and so on, and can be handed to a {@link Reporter} at a
+ * fixed period.</p>
+ */
+public final class RequestMetrics {
+
+    /**
+     * A private logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(RequestMetrics.class.getName());
+
+    /**
+     * The default instance; guarded by the class.
+     */
+    private static RequestMetrics defaultInstance;
+
+    /**
+     * Whether the metrics are registered over JMX.
+     */
+    private final boolean registerMXBeans;
+
+    /**
+     * The metrics by method.
+     */
+    private final ConcurrentMap<String, MethodMetrics> methods =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Receives the metrics periodically.
+     */
+    public interface Reporter {
+        /**
+         * Reports the metrics of all the methods called so far.
+         *
+         * @param metrics The metrics, one per method.
+         */
+        void report(Collection<MethodMetrics> metrics);
+    }
+
+    /**
+     * A reporter which logs a summary of every method.
+     */
+    public static final Reporter LOGGING_REPORTER = new Reporter() {
+        @Override
+        public void report(final Collection<MethodMetrics> metrics) {
+            for (MethodMetrics methodMetrics : metrics) {
+                LOG.info(methodMetrics.getSummary());
+            }
+        }
+    };
+
+    /**
+     * A constructor.
+     *
+     * @param registerMXBeans Whether to register the metrics over JMX.
+     */
+    public RequestMetrics(final boolean registerMXBeans) {
+        this.registerMXBeans = registerMXBeans;
+    }
+
+    /**
+     * Returns the instance shared by the process, whose metrics are
+     * registered over JMX.
+     *
+     * @return the default instance.
+     */
+    public static synchronized RequestMetrics getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new RequestMetrics(true);
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Returns the metrics of a method, creating them on the first call.
+     *
+     * @param method The name of the method.
+     * @return the metrics.
+     */
+    public MethodMetrics forMethod(final String method) {
+        MethodMetrics metrics = methods.get(method);
+        if (metrics != null) {
+            return metrics;
+        }
+        MethodMetrics newMetrics = new MethodMetrics(method);
+        metrics = methods.putIfAbsent(method, newMetrics);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (registerMXBeans) {
+            MXBeans.register(newMetrics, "RequestMetrics", method);
+        }
+        return newMetrics;
+    }
+
+    /**
+     * Returns the metrics of the methods called so far.
+     *
+     * @return the metrics, one per method.
+     */
+    public Collection<MethodMetrics> getAll() {
+        return new ArrayList<>(methods.values());
+    }
+
+    /**
+     * Hands the metrics to a reporter at a fixed period, from a daemon
+     * thread.
+     *
+     * @param reporter The reporter.
+     * @param periodSeconds The period in seconds.
+     */
+    public void startReporting(final Reporter reporter,
+                               final long periodSeconds) {
+        Preconditions.checkNotNull(reporter);
+        Preconditions.checkArgument(periodSeconds > 0,
+                "period must be positive");
+        ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("request-metrics-%d")
+                                .setDaemon(true)
+                                .build());
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reporter.report(getAll());
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Failed to report metrics", e);
+                }
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the name of the API method a request calls.
+     *
+     * @param request The request.
+     * @return the custom verb, e.g. "pull", or else the HTTP method, e.g.
+     * "get".
+     */
+    static String methodOf(final HttpRequest request) {
+        String path = request.getUrl().getRawPath();
+        if (path != null) {
+            int colon = path.lastIndexOf(':');
+            if (colon > path.lastIndexOf('/')) {
+                return path.substring(colon + 1);
+            }
+        }
+        return request.getRequestMethod().toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,156 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket shared by all the requests of a process, from which every
+ * retry takes a token.
+ *
+ * <p>The bucket is filled at a fixed rate, so that a few retries per
+ * second are always allowed, and by a fraction of a token for every new
+ * request, so that retries stay a bounded share of the traffic. During an
+ * outage the bucket empties quickly, and the requests then fail at once
+ * instead of all retrying and multiplying the load.</p>
+ */
+public final class RetryBudget {
+
+    /**
+     * Default max number of tokens.
+     */
+    static final double DEFAULT_CAPACITY = 100;
+
+    /**
+     * Default number of tokens added per second.
+     */
+    static final double DEFAULT_TOKENS_PER_SECOND = 10;
+
+    /**
+     * Default number of tokens added per new request.
+     */
+    static final double DEFAULT_TOKENS_PER_REQUEST = 0.1;
+
+    /**
+     * Nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Max number of tokens.
+     */
+    private final double capacity;
+
+    /**
+     * Number of tokens added per second.
+     */
+    private final double tokensPerSecond;
+
+    /**
+     * Number of tokens added per new request.
+     */
+    private final double tokensPerRequest;
+
+    /**
+     * Tells the time of the refills.
+     */
+    private final Ticker ticker;
+
+    /**
+     * Number of tokens left; guarded by this.
+     */
+    private double tokens;
+
+    /**
+     * When the tokens were last refilled; guarded by this.
+     */
+    private long lastRefillNanos;
+
+    /**
+     * Number of retries refused; guarded by this.
+     */
+    private long refused;
+
+    /**
+     * A constructor with the default settings.
+     */
+    public RetryBudget() {
+        this(DEFAULT_CAPACITY, DEFAULT_TOKENS_PER_SECOND,
+                DEFAULT_TOKENS_PER_REQUEST, Ticker.systemTicker());
+    }
+
+    /**
+     * A constructor.
+     *
+     * @param capacity Max number of tokens, which the bucket starts with.
+     * @param tokensPerSecond Number of tokens added per second.
+     * @param tokensPerRequest Number of tokens added per new request.
+     * @param ticker Tells the time of the refills.
+     */
+    public RetryBudget(final double capacity, final double tokensPerSecond,
+                       final double tokensPerRequest, final Ticker ticker) {
+        Preconditions.checkArgument(capacity >= 1,
+                "capacity must be at least 1");
+        Preconditions.checkArgument(tokensPerSecond >= 0
+                && tokensPerRequest >= 0, "refills must not be negative");
+        this.capacity = capacity;
+        this.tokensPerSecond = tokensPerSecond;
+        this.tokensPerRequest = tokensPerRequest;
+        this.ticker = Preconditions.checkNotNull(ticker);
+        this.tokens = capacity;
+        this.lastRefillNanos = ticker.read();
+    }
+
+    /**
+     * Records a new request, which earns a fraction of a retry.
+     */
+    public synchronized void onRequest() {
+        refill();
+        tokens = Math.min(capacity, tokens + tokensPerRequest);
+    }
+
+    /**
+     * Takes a token for a retry, if one is left.
+     *
+     * @return whether the retry is allowed.
+     */
+    public synchronized boolean tryRetry() {
+        refill();
+        if (tokens < 1) {
+            refused++;
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Returns the number of tokens left.
+     *
+     * @return the number of tokens.
+     */
+    public synchronized double getTokens() {
+        refill();
+        return tokens;
+    }
+
+    /**
+     * Returns the number of retries refused so far.
+     *
+     * @return the number of retries.
+     */
+    public synchronized long getRefused() {
+        return refused;
+    }
+
+    /**
+     * Adds the tokens earned since the last refill.
+     */
+    private void refill() {
+        long now = ticker.read();
+        tokens = Math.min(capacity, tokens
+                + (now - lastRefillNanos) / NANOS_PER_SECOND * tokensPerSecond);
+        lastRefillNanos = now;
+    }
+}
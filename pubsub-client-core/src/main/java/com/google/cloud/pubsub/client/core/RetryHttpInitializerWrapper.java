@@ -0,0 +1,253 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.util.Sleeper;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * RetryHttpInitializerWrapper will automatically retry upon RPC
+ * failures, preserving the auto-refresh behavior of the Google
+ * Credentials.
+ *
+ * <p>The timeouts and the retries follow a {@link RetryPolicy}: server
+ * errors, throttling and I/O errors are retried with jittered delays, as
+ * long as the retry budget of the process allows it. It also records the
+ * latency, status codes, retries, give-ups, failures and back-off time of
+ * every request in {@link RequestMetrics}, by API method.</p>
+ */
+public class RetryHttpInitializerWrapper implements HttpRequestInitializer {
+
+    /**
+     * A private logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(RetryHttpInitializerWrapper.class.getName());
+
+    /**
+     * HTTP status of a request rejected for exceeding a quota or rate.
+     */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Tells the responses which are worth a retry: server errors and
+     * throttling.
+     */
+    private static final HttpBackOffUnsuccessfulResponseHandler
+            .BackOffRequired SERVER_ERROR_OR_THROTTLED =
+            new HttpBackOffUnsuccessfulResponseHandler.BackOffRequired() {
+                @Override
+                public boolean isRequired(final HttpResponse response) {
+                    return response.getStatusCode() / 100 == 5
+                            || response.getStatusCode() == TOO_MANY_REQUESTS;
+                }
+            };
+
+    /**
+     * Intercepts the request for filling in the "Authorization"
+     * header field, as well as recovering from certain unsuccessful
+     * error codes wherein the Credential must refresh its token for a
+     * retry.
+     */
+    private final Credential wrappedCredential;
+
+    /**
+     * A sleeper; you can replace it with a mock in your test.
+     */
+    private final Sleeper sleeper;
+
+    /**
+     * Records the metrics of the requests.
+     */
+    private final RequestMetrics metrics;
+
+    /**
+     * Decides the timeouts and the retries of the requests.
+     */
+    private final RetryPolicy retryPolicy;
+
+    /**
+     * A constructor.
+     *
+     * @param wrappedCredential Credential which will be wrapped and
+     * used for providing auth header.
+     */
+    public RetryHttpInitializerWrapper(final Credential wrappedCredential) {
+        this(wrappedCredential, Sleeper.DEFAULT);
+    }
+
+    /**
+     * A protected constructor only for testing.
+     *
+     * @param wrappedCredential Credential which will be wrapped and
+     * used for providing auth header.
+     * @param sleeper Sleeper for easy testing.
+     */
+    RetryHttpInitializerWrapper(
+            final Credential wrappedCredential, final Sleeper sleeper) {
+        this(wrappedCredential, sleeper, RequestMetrics.getDefault(),
+                RetryPolicy.getDefault());
+    }
+
+    /**
+     * A constructor.
+     *
+     * @param wrappedCredential Credential which will be wrapped and
+     * used for providing auth header.
+     * @param sleeper Sleeper for easy testing.
+     * @param metrics Records the metrics of the requests.
+     * @param retryPolicy Decides the timeouts and the retries of the
+     * requests.
+     */
+    RetryHttpInitializerWrapper(final Credential wrappedCredential,
+                                final Sleeper sleeper,
+                                final RequestMetrics metrics,
+                                final RetryPolicy retryPolicy) {
+        this.wrappedCredential = Preconditions.checkNotNull(wrappedCredential);
+        this.sleeper = sleeper;
+        this.metrics = Preconditions.checkNotNull(metrics);
+        this.retryPolicy = Preconditions.checkNotNull(retryPolicy);
+    }
+
+    /**
+     * Initializes the given request.
+     */
+    @Override
+    public final void initialize(final HttpRequest request) {
+        final Attempts attempts = new Attempts();
+        final HttpUnsuccessfulResponseHandler backoffHandler =
+                new HttpBackOffUnsuccessfulResponseHandler(
+                        retryPolicy.newBackOff())
+                        .setBackOffRequired(SERVER_ERROR_OR_THROTTLED)
+                        .setSleeper(attempts);
+        final HttpIOExceptionHandler ioExceptionHandler =
+                new HttpBackOffIOExceptionHandler(retryPolicy.newBackOff())
+                        .setSleeper(attempts);
+        request.setInterceptor(attempts);
+        request.setResponseInterceptor(attempts);
+        request.setUnsuccessfulResponseHandler(
+                new HttpUnsuccessfulResponseHandler() {
+                    @Override
+                    public boolean handleResponse(
+                            final HttpRequest request,
+                            final HttpResponse response,
+                            final boolean supportsRetry) throws IOException {
+                        attempts.metrics.recordResponse(
+                                response.getStatusCode(),
+                                attempts.elapsedMicros());
+                        if (wrappedCredential.handleResponse(
+                                request, response, supportsRetry)) {
+                            // If credential decides it can handle it,
+                            // the return code or message indicated
+                            // something specific to authentication,
+                            // and no backoff is desired.
+                            attempts.metrics.recordRetry();
+                            return true;
+                        } else if (backoffHandler.handleResponse(
+                                request, response, supportsRetry)) {
+                            // Otherwise, we defer to the judgement of
+                            // our internal backoff handler.
+                            LOG.info("Retrying "
+                                    + request.getUrl().toString());
+                            attempts.metrics.recordRetry();
+                            return true;
+                        } else if (SERVER_ERROR_OR_THROTTLED.isRequired(
+                                response)) {
+                            // Out of attempts or retry budget.
+                            attempts.metrics.recordGiveUp();
+                            return false;
+                        } else {
+                            attempts.metrics.recordFailure();
+                            return false;
+                        }
+                    }
+                });
+        request.setIOExceptionHandler(new HttpIOExceptionHandler() {
+            @Override
+            public boolean handleIOException(final HttpRequest request,
+                                             final boolean supportsRetry)
+                    throws IOException {
+                attempts.metrics.recordIOError(attempts.elapsedMicros());
+                boolean retried = ioExceptionHandler.handleIOException(
+                        request, supportsRetry);
+                if (retried) {
+                    attempts.metrics.recordRetry();
+                } else {
+                    attempts.metrics.recordGiveUp();
+                }
+                return retried;
+            }
+        });
+    }
+
+    /**
+     * Times the attempts of a request and the sleeps between them, and
+     * authorizes every attempt with the credential.
+     */
+    private final class Attempts implements HttpExecuteInterceptor,
+            HttpResponseInterceptor, Sleeper {
+        /**
+         * Metrics of the API method of the request; known once it runs.
+         */
+        private MethodMetrics metrics;
+
+        /**
+         * When the current attempt started, in nanoseconds.
+         */
+        private long startNanos;
+
+        @Override
+        public void intercept(final HttpRequest request) throws IOException {
+            if (metrics == null) {
+                // The first attempt; the URL is only known from now on.
+                String method = RequestMetrics.methodOf(request);
+                metrics = RetryHttpInitializerWrapper.this.metrics.forMethod(
+                        method);
+                request.setReadTimeout(
+                        retryPolicy.getReadTimeoutMillis(method));
+                retryPolicy.getBudget().onRequest();
+            }
+            metrics.recordAttempt();
+            startNanos = System.nanoTime();
+            wrappedCredential.intercept(request);
+        }
+
+        @Override
+        public void interceptResponse(final HttpResponse response) {
+            // Only called with the last response; the unsuccessful ones
+            // are recorded by the unsuccessful response handler.
+            if (response.isSuccessStatusCode()) {
+                metrics.recordResponse(response.getStatusCode(),
+                        elapsedMicros());
+            }
+        }
+
+        @Override
+        public void sleep(final long millis) throws InterruptedException {
+            metrics.recordBackOff(millis);
+            sleeper.sleep(millis);
+        }
+
+        /**
+         * Returns the time since the current attempt started.
+         *
+         * @return the time in microseconds.
+         */
+        private long elapsedMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(System.nanoTime()
+                    - startNanos);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.util.BackOff;
+import com.google.common.base.Preconditions;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long the requests to each Cloud Pub/Sub API method may take,
+ * and how they are retried.
+ *
+ * <p>Retries wait for a delay with decorrelated jitter: a random time
+ * between the base delay and three times the previous delay, capped, so
+ * that clients failing together don't retry together. A request is not
+ * retried any more once it has been retrying for too long, or when the
+ * {@link RetryBudget} of the process is exhausted.</p>
+ */
+public final class RetryPolicy {
+
+    /**
+     * Default read timeout of the methods without their own.
+     */
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Read timeout of publish, acknowledge and modifyAckDeadline.
+     */
+    static final int SHORT_READ_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Read timeout of pull, longer than a long poll.
+     */
+    static final int PULL_READ_TIMEOUT_MILLIS = 120000;
+
+    /**
+     * Default smallest delay before a retry.
+     */
+    static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+
+    /**
+     * Default largest delay before a retry.
+     */
+    static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+
+    /**
+     * Default time after which a request is not retried any more.
+     */
+    static final long DEFAULT_MAX_ELAPSED_MILLIS = 60000;
+
+    /**
+     * Factor between the largest next delay and the previous one.
+     */
+    private static final int DELAY_GROWTH = 3;
+
+    /**
+     * The default instance; guarded by the class.
+     */
+    private static RetryPolicy defaultInstance;
+
+    /**
+     * Allows the retries.
+     */
+    private final RetryBudget budget;
+
+    /**
+     * Smallest delay before a retry.
+     */
+    private final long baseDelayMillis;
+
+    /**
+     * Largest delay before a retry.
+     */
+    private final long maxDelayMillis;
+
+    /**
+     * Time after which a request is not retried any more.
+     */
+    private final long maxElapsedMillis;
+
+    /**
+     * Read timeouts by method.
+     */
+    private final Map<String, Integer> readTimeouts =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Picks the delays.
+     */
+    private final Random random = new Random();
+
+    /**
+     * A constructor.
+     *
+     * @param budget Allows the retries; shared by the process.
+     * @param baseDelayMillis Smallest delay before a retry.
+     * @param maxDelayMillis Largest delay before a retry.
+     * @param maxElapsedMillis Time after which a request is not retried any
+     * more.
+     */
+    public RetryPolicy(final RetryBudget budget, final long baseDelayMillis,
+                       final long maxDelayMillis,
+                       final long maxElapsedMillis) {
+        Preconditions.checkArgument(baseDelayMillis > 0
+                && maxDelayMillis >= baseDelayMillis,
+                "invalid delays");
+        this.budget = Preconditions.checkNotNull(budget);
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxElapsedMillis = maxElapsedMillis;
+        readTimeouts.put("publish", SHORT_READ_TIMEOUT_MILLIS);
+        readTimeouts.put("acknowledge", SHORT_READ_TIMEOUT_MILLIS);
+        readTimeouts.put("modifyAckDeadline", SHORT_READ_TIMEOUT_MILLIS);
+        readTimeouts.put("pull", PULL_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the policy shared by the process.
+     *
+     * @return the default instance.
+     */
+    public static synchronized RetryPolicy getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new RetryPolicy(new RetryBudget(),
+                    DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS,
+                    DEFAULT_MAX_ELAPSED_MILLIS);
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Sets the read timeout of a method.
+     *
+     * @param method The name of the method, e.g. "pull".
+     * @param timeoutMillis The timeout in milliseconds.
+     * @return this policy.
+     */
+    public RetryPolicy setReadTimeoutMillis(final String method,
+                                            final int timeoutMillis) {
+        Preconditions.checkArgument(timeoutMillis >= 0,
+                "timeout must not be negative");
+        readTimeouts.put(method, timeoutMillis);
+        return this;
+    }
+
+    /**
+     * Returns the read timeout of a method.
+     *
+     * @param method The name of the method, e.g. "pull".
+     * @return the timeout in milliseconds.
+     */
+    public int getReadTimeoutMillis(final String method) {
+        Integer timeout = readTimeouts.get(method);
+        if (timeout == null) {
+            return DEFAULT_READ_TIMEOUT_MILLIS;
+        }
+        return timeout;
+    }
+
+    /**
+     * Returns the retry budget.
+     *
+     * @return the budget.
+     */
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the back-off of a new request.
+     *
+     * @return a back-off for one request.
+     */
+    public BackOff newBackOff() {
+        return new JitteredBackOff();
+    }
+
+    /**
+     * The delays before the retries of one request.
+     */
+    private final class JitteredBackOff implements BackOff {
+        /**
+         * When the request started.
+         */
+        private long startNanos = System.nanoTime();
+
+        /**
+         * The previous delay.
+         */
+        private long delayMillis = baseDelayMillis;
+
+        @Override
+        public void reset() {
+            startNanos = System.nanoTime();
+            delayMillis = baseDelayMillis;
+        }
+
+        @Override
+        public long nextBackOffMillis() {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - startNanos);
+            if (elapsedMillis >= maxElapsedMillis || !budget.tryRetry()) {
+                return STOP;
+            }
+            long upper = Math.min(maxDelayMillis, delayMillis * DELAY_GROWTH);
+            long delay = baseDelayMillis;
+            if (upper > baseDelayMillis) {
+                delay += (long) (random.nextDouble()
+                        * (upper - baseDelayMillis));
+            }
+            delayMillis = delay;
+            return delay;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Cloud Pub/Sub client library shared by the samples: the HTTP transport,
+ * retries, metrics and circuit breakers of the clients, a batching
+ * publisher and a pipelined subscriber.
+ */
+
+package com.google.cloud.pubsub.client.core;
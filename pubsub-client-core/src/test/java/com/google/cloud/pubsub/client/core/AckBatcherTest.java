@@ -0,0 +1,151 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Clock;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PublishRequest;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.api.services.pubsub.model.Subscription;
+import com.google.api.services.pubsub.model.Topic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AckBatcherTest {
+
+    private static final String TOPIC = "projects/test/topics/t";
+
+    private static final String SUBSCRIPTION =
+            "projects/test/subscriptions/s";
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final long LONG_DELAY_MILLIS = 60000;
+
+    private final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+    private FakePubsubTransport transport;
+
+    private Pubsub client;
+
+    private AckBatcher ackBatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        // The clock of the fake stands still, so that only the acknowledged
+        // messages leave the backlog.
+        transport = new FakePubsubTransport(jsonFactory, new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return 1000000;
+            }
+        });
+        client = PubsubClients.getClient(transport, jsonFactory, "http://fake",
+                "test");
+        client.projects().topics().create(TOPIC, new Topic()).execute();
+        client.projects().subscriptions().create(SUBSCRIPTION,
+                new Subscription().setTopic(TOPIC).setAckDeadlineSeconds(10))
+                .execute();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (ackBatcher != null) {
+            ackBatcher.close();
+        }
+    }
+
+    private List<String> receive(int count) throws Exception {
+        PublishRequest request = new PublishRequest().setMessages(
+                new ArrayList<PubsubMessage>());
+        for (int i = 0; i < count; i++) {
+            request.getMessages().add(new PubsubMessage()
+                    .encodeData(Integer.toString(i).getBytes("UTF-8")));
+        }
+        client.projects().topics().publish(TOPIC, request).execute();
+        List<ReceivedMessage> messages = client.projects().subscriptions()
+                .pull(SUBSCRIPTION, new PullRequest()
+                        .setReturnImmediately(true)
+                        .setMaxMessages(count))
+                .execute()
+                .getReceivedMessages();
+        assertEquals(count, messages.size());
+        List<String> ackIds = new ArrayList<>();
+        for (ReceivedMessage message : messages) {
+            ackIds.add(message.getAckId());
+        }
+        return ackIds;
+    }
+
+    private void awaitAckCount(long ackCount) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (ackBatcher.getAckCount() < ackCount
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(ackCount, ackBatcher.getAckCount());
+    }
+
+    @Test
+    public void testCoalescesUpToTheMaxCount() throws Exception {
+        ackBatcher = new AckBatcher(client, SUBSCRIPTION, 10,
+                AckBatcher.DEFAULT_MAX_BYTES, LONG_DELAY_MILLIS);
+        for (String ackId : receive(25)) {
+            ackBatcher.add(ackId);
+        }
+        awaitAckCount(20);
+        assertEquals(2, ackBatcher.getRequestCount());
+        assertEquals(5, transport.getBacklog(SUBSCRIPTION));
+    }
+
+    @Test
+    public void testCoalescesUpToTheMaxBytes() throws Exception {
+        // Ack ids "1" to "9" count for 4 bytes each with their quotes and
+        // comma, so 3 of them fill a call.
+        ackBatcher = new AckBatcher(client, SUBSCRIPTION,
+                AckBatcher.DEFAULT_MAX_COUNT, 12, LONG_DELAY_MILLIS);
+        for (String ackId : receive(8)) {
+            ackBatcher.add(ackId);
+        }
+        awaitAckCount(6);
+        assertEquals(2, ackBatcher.getRequestCount());
+        assertEquals(2, transport.getBacklog(SUBSCRIPTION));
+    }
+
+    @Test
+    public void testFlushesAfterTheMaxDelay() throws Exception {
+        ackBatcher = new AckBatcher(client, SUBSCRIPTION,
+                AckBatcher.DEFAULT_MAX_COUNT, AckBatcher.DEFAULT_MAX_BYTES,
+                50);
+        for (String ackId : receive(3)) {
+            ackBatcher.add(ackId);
+        }
+        awaitAckCount(3);
+        assertEquals(1, ackBatcher.getRequestCount());
+        assertEquals(0, transport.getBacklog(SUBSCRIPTION));
+    }
+
+    @Test
+    public void testCloseFlushesThePendingAckIds() throws Exception {
+        ackBatcher = new AckBatcher(client, SUBSCRIPTION,
+                AckBatcher.DEFAULT_MAX_COUNT, AckBatcher.DEFAULT_MAX_BYTES,
+                LONG_DELAY_MILLIS);
+        for (String ackId : receive(3)) {
+            ackBatcher.add(ackId);
+        }
+        assertEquals(0, ackBatcher.getRequestCount());
+        assertEquals(3, transport.getBacklog(SUBSCRIPTION));
+        ackBatcher.close();
+        assertEquals(0, transport.getBacklog(SUBSCRIPTION));
+        assertEquals(1, ackBatcher.getRequestCount());
+        ackBatcher = null;
+    }
+}
@@ -0,0 +1,166 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Clock;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.api.services.pubsub.model.Subscription;
+import com.google.api.services.pubsub.model.Topic;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BatchingPublisherTest {
+
+    private static final String TOPIC = "projects/test/topics/t";
+
+    private static final String SUBSCRIPTION =
+            "projects/test/subscriptions/s";
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final long LONG_LINGER_MILLIS = 60000;
+
+    private final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+    private Pubsub client;
+
+    private BatchingPublisher publisher;
+
+    @Before
+    public void setUp() throws Exception {
+        FakePubsubTransport transport = new FakePubsubTransport(jsonFactory,
+                Clock.SYSTEM);
+        client = PubsubClients.getClient(transport, jsonFactory, "http://fake",
+                "test");
+        client.projects().topics().create(TOPIC, new Topic()).execute();
+        client.projects().subscriptions().create(SUBSCRIPTION,
+                new Subscription().setTopic(TOPIC)).execute();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (publisher != null) {
+            publisher.close();
+        }
+    }
+
+    private static PubsubMessage message(String payload) throws Exception {
+        return new PubsubMessage().encodeData(payload.getBytes("UTF-8"));
+    }
+
+    private static String await(ListenableFuture<String> future)
+            throws Exception {
+        return future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private List<String> pullPayloads() throws Exception {
+        List<ReceivedMessage> messages = client.projects().subscriptions()
+                .pull(SUBSCRIPTION, new PullRequest()
+                        .setReturnImmediately(true)
+                        .setMaxMessages(100))
+                .execute()
+                .getReceivedMessages();
+        List<String> payloads = new ArrayList<>();
+        if (messages != null) {
+            for (ReceivedMessage message : messages) {
+                payloads.add(new String(message.getMessage().decodeData(),
+                        "UTF-8"));
+            }
+        }
+        return payloads;
+    }
+
+    @Test
+    public void testSendsWhenTheMaxCountIsReached() throws Exception {
+        publisher = new BatchingPublisher(client, 3,
+                BatchingPublisher.MAX_REQUEST_BYTES, LONG_LINGER_MILLIS, 1);
+        List<ListenableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(publisher.publish(TOPIC, message("m" + i)));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(await(futures.get(i)));
+        }
+        assertFalse(futures.get(3).isDone());
+    }
+
+    @Test
+    public void testSendsWhenTheMaxBytesWouldBeExceeded() throws Exception {
+        PubsubMessage first = message("aaaa");
+        // Room for two such messages in the 32 bytes envelope.
+        int maxBytes = 32 + 2 * BatchingPublisher.sizeOf(first);
+        publisher = new BatchingPublisher(client,
+                BatchingPublisher.MAX_MESSAGES_PER_REQUEST, maxBytes,
+                LONG_LINGER_MILLIS, 1);
+        ListenableFuture<String> future1 = publisher.publish(TOPIC, first);
+        ListenableFuture<String> future2 =
+                publisher.publish(TOPIC, message("bbbb"));
+        ListenableFuture<String> future3 =
+                publisher.publish(TOPIC, message("cccc"));
+        assertNotNull(await(future1));
+        assertNotNull(await(future2));
+        assertFalse(future3.isDone());
+    }
+
+    @Test
+    public void testSendsAfterTheLingerTime() throws Exception {
+        publisher = new BatchingPublisher(client,
+                BatchingPublisher.MAX_MESSAGES_PER_REQUEST,
+                BatchingPublisher.MAX_REQUEST_BYTES, 50, 1);
+        assertNotNull(await(publisher.publish(TOPIC, message("a"))));
+        assertEquals(1, pullPayloads().size());
+    }
+
+    @Test
+    public void testLingerOfASentBatchDoesNotSendTheNextOne()
+            throws Exception {
+        final long lingerMillis = 500;
+        publisher = new BatchingPublisher(client, 2,
+                BatchingPublisher.MAX_REQUEST_BYTES, lingerMillis, 2);
+        ListenableFuture<String> third;
+        publisher.publish(TOPIC, message("a"));
+        // Holds the lock of the publisher until the linger task of the
+        // first batch is running and waits for it, so that it can no
+        // longer be cancelled when the batch is sent for its count.
+        synchronized (publisher) {
+            Thread.sleep(lingerMillis + 200);
+            publisher.publish(TOPIC, message("b"));
+            third = publisher.publish(TOPIC, message("c"));
+        }
+        Thread.sleep(lingerMillis / 2);
+        assertFalse(third.isDone());
+        assertNotNull(await(third));
+    }
+
+    @Test
+    public void testCloseSendsThePendingMessages() throws Exception {
+        publisher = new BatchingPublisher(client,
+                BatchingPublisher.MAX_MESSAGES_PER_REQUEST,
+                BatchingPublisher.MAX_REQUEST_BYTES, LONG_LINGER_MILLIS, 1);
+        ListenableFuture<String> future1 =
+                publisher.publish(TOPIC, message("a"));
+        ListenableFuture<String> future2 =
+                publisher.publish(TOPIC, message("b"));
+        assertFalse(future1.isDone());
+        publisher.close();
+        publisher = null;
+        assertTrue(future1.isDone());
+        assertTrue(future2.isDone());
+        assertNotEquals(future1.get(), future2.get());
+        List<String> payloads = pullPayloads();
+        assertEquals(2, payloads.size());
+        assertTrue(payloads.contains("a"));
+        assertTrue(payloads.contains("b"));
+    }
+}
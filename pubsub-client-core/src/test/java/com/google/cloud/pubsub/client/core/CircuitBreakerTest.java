@@ -0,0 +1,118 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.Sleeper;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private long nanos;
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos;
+        }
+    };
+
+    @Test
+    public void testOpensProbesAndCloses() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("pull", 4, 0.5, 1000,
+                ticker);
+        breaker.acquire();
+        breaker.onSuccess();
+        for (int i = 0; i < 2; i++) {
+            breaker.acquire();
+            breaker.onFailure();
+        }
+        assertEquals("CLOSED", breaker.getState());
+        breaker.acquire();
+        breaker.onFailure();
+        assertEquals("OPEN", breaker.getState());
+        assertEquals(1, breaker.getOpened());
+        try {
+            breaker.acquire();
+            fail();
+        } catch (CircuitBreaker.OpenException e) {
+            assertEquals(1, breaker.getRejected());
+        }
+
+        nanos += TimeUnit.SECONDS.toNanos(1);
+        breaker.acquire();
+        assertEquals("HALF_OPEN", breaker.getState());
+        try {
+            breaker.acquire();
+            fail();
+        } catch (CircuitBreaker.OpenException e) {
+            assertEquals(2, breaker.getRejected());
+        }
+        breaker.onFailure();
+        assertEquals("OPEN", breaker.getState());
+
+        nanos += TimeUnit.SECONDS.toNanos(1);
+        breaker.acquire();
+        breaker.onSuccess();
+        assertEquals("CLOSED", breaker.getState());
+        assertEquals(0, breaker.getFailureRate(), 0);
+    }
+
+    @Test
+    public void testFailsFastOverHttp() throws Exception {
+        final AtomicInteger sent = new AtomicInteger();
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        sent.incrementAndGet();
+                        return new MockLowLevelHttpResponse()
+                                .setStatusCode(503);
+                    }
+                };
+            }
+        };
+        GoogleCredential credential = new GoogleCredential()
+                .setAccessToken("token")
+                .setExpirationTimeMilliseconds(Long.MAX_VALUE);
+        RetryHttpInitializerWrapper retries = new RetryHttpInitializerWrapper(
+                credential, Sleeper.DEFAULT, new RequestMetrics(false),
+                new RetryPolicy(new RetryBudget(), 1, 1, 60000));
+        HttpRequestFactory factory = transport.createRequestFactory(
+                new CircuitBreakerInitializer(retries,
+                        new ConcurrentHashMap<String, CircuitBreaker>()));
+        GenericUrl url = new GenericUrl(
+                "https://pubsub.googleapis.com/v1/projects/p/topics/t:publish");
+        // Every request is retried until the breaker opens.
+        int failures = 0;
+        try {
+            while (true) {
+                try {
+                    factory.buildPostRequest(url, null).execute();
+                    fail();
+                } catch (HttpResponseException e) {
+                    assertEquals(503, e.getStatusCode());
+                    failures++;
+                }
+            }
+        } catch (CircuitBreaker.OpenException e) {
+            assertEquals(2, failures);
+            assertEquals(CircuitBreaker.DEFAULT_WINDOW_SIZE, sent.get());
+        }
+    }
+}
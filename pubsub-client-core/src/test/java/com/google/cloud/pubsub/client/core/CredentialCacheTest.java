@@ -0,0 +1,113 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.TokenResponse;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.testing.http.MockHttpTransport;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CredentialCacheTest {
+
+    private final ScheduledThreadPoolExecutor executor =
+            new ScheduledThreadPoolExecutor(1);
+
+    private final Credential credential =
+            new Credential(BearerToken.authorizationHeaderAccessMethod());
+
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    private volatile CountDownLatch fetching;
+
+    private volatile CountDownLatch release;
+
+    private final Credential refresher =
+            new Credential(BearerToken.authorizationHeaderAccessMethod()) {
+                @Override
+                protected TokenResponse executeRefreshToken()
+                        throws IOException {
+                    if (release != null) {
+                        fetching.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                    return new TokenResponse()
+                            .setAccessToken("t" + fetches.incrementAndGet())
+                            .setExpiresInSeconds(3600L);
+                }
+            };
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private String authorize() throws IOException {
+        HttpRequest request = new MockHttpTransport().createRequestFactory()
+                .buildGetRequest(new GenericUrl("http://fake/"));
+        credential.intercept(request);
+        return request.getHeaders().getAuthorization();
+    }
+
+    @Test
+    public void testRefreshesAheadOfExpiry() throws Exception {
+        CredentialCache cache = new CredentialCache(credential, refresher,
+                executor);
+        cache.start();
+
+        assertSame(credential, cache.getCredential());
+        assertEquals("Bearer t1", authorize());
+        assertEquals(1, fetches.get());
+        assertEquals(1, executor.getQueue().size());
+        long delay = ((ScheduledFuture<?>) executor.getQueue().peek())
+                .getDelay(TimeUnit.SECONDS);
+        assertTrue(delay > 3600 - CredentialCache.REFRESH_MARGIN_SECONDS - 10);
+        assertTrue(delay <= 3600 - CredentialCache.REFRESH_MARGIN_SECONDS);
+    }
+
+    @Test
+    public void testRequestsDoNotWaitForTheRefresh() throws Exception {
+        final CredentialCache cache = new CredentialCache(credential,
+                refresher, executor);
+        cache.start();
+        fetching = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        Thread refresh = new Thread() {
+            @Override
+            public void run() {
+                cache.start();
+            }
+        };
+        refresh.start();
+        assertTrue(fetching.await(10, TimeUnit.SECONDS));
+
+        // The old token is still served while the new one is fetched.
+        assertEquals("Bearer t1", authorize());
+
+        release.countDown();
+        refresh.join();
+        assertEquals("Bearer t2", authorize());
+    }
+
+    @Test
+    public void testRefreshDelay() {
+        assertEquals(-1, CredentialCache.getRefreshDelaySeconds(null));
+        assertEquals(3300, CredentialCache.getRefreshDelaySeconds(3600L));
+        assertEquals(60, CredentialCache.getRefreshDelaySeconds(120L));
+        assertEquals(1, CredentialCache.getRefreshDelaySeconds(0L));
+    }
+}
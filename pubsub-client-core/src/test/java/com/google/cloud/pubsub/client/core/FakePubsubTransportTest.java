@@ -0,0 +1,203 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Clock;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.AcknowledgeRequest;
+import com.google.api.services.pubsub.model.ModifyAckDeadlineRequest;
+import com.google.api.services.pubsub.model.PublishRequest;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.api.services.pubsub.model.Subscription;
+import com.google.api.services.pubsub.model.Topic;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FakePubsubTransportTest {
+
+    private static final String TOPIC = "projects/test/topics/t";
+
+    private static final String SUBSCRIPTION =
+            "projects/test/subscriptions/s";
+
+    private final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+    private long now = 1000000;
+
+    private FakePubsubTransport transport;
+
+    private Pubsub client;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FakePubsubTransport(jsonFactory, new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return now;
+            }
+        });
+        client = PubsubClients.getClient(transport, jsonFactory, "http://fake",
+                "test");
+        client.projects().topics().create(TOPIC, new Topic()).execute();
+        client.projects().subscriptions().create(SUBSCRIPTION,
+                new Subscription().setTopic(TOPIC).setAckDeadlineSeconds(10))
+                .execute();
+    }
+
+    private List<String> publish(String... payloads) throws Exception {
+        PublishRequest request = new PublishRequest().setMessages(
+                new ArrayList<PubsubMessage>());
+        for (String payload : payloads) {
+            request.getMessages().add(
+                    new PubsubMessage().encodeData(payload.getBytes("UTF-8")));
+        }
+        return client.projects().topics().publish(TOPIC, request).execute()
+                .getMessageIds();
+    }
+
+    private List<ReceivedMessage> pull(int maxMessages) throws Exception {
+        List<ReceivedMessage> messages = client.projects().subscriptions()
+                .pull(SUBSCRIPTION, new PullRequest()
+                        .setReturnImmediately(true)
+                        .setMaxMessages(maxMessages))
+                .execute()
+                .getReceivedMessages();
+        if (messages == null) {
+            return Collections.emptyList();
+        }
+        return messages;
+    }
+
+    @Test
+    public void testPublishPullAcknowledge() throws Exception {
+        assertEquals(3, publish("a", "b", "c").size());
+        List<ReceivedMessage> messages = pull(2);
+        assertEquals(2, messages.size());
+        assertEquals("a", new String(
+                messages.get(0).getMessage().decodeData(), "UTF-8"));
+        assertEquals(3, transport.getBacklog(SUBSCRIPTION));
+        client.projects().subscriptions().acknowledge(SUBSCRIPTION,
+                new AcknowledgeRequest().setAckIds(Arrays.asList(
+                        messages.get(0).getAckId(),
+                        messages.get(1).getAckId())))
+                .execute();
+        assertEquals(1, transport.getBacklog(SUBSCRIPTION));
+        assertEquals(1, pull(10).size());
+        assertTrue(pull(10).isEmpty());
+    }
+
+    @Test
+    public void testRedeliversAfterDeadline() throws Exception {
+        publish("a");
+        ReceivedMessage first = pull(1).get(0);
+        now += 9000;
+        assertTrue(pull(1).isEmpty());
+        now += 1000;
+        ReceivedMessage second = pull(1).get(0);
+        assertEquals(first.getMessage().getMessageId(),
+                second.getMessage().getMessageId());
+        assertNotEquals(first.getAckId(), second.getAckId());
+        // The ack id of the expired delivery is ignored.
+        client.projects().subscriptions().acknowledge(SUBSCRIPTION,
+                new AcknowledgeRequest().setAckIds(
+                        Collections.singletonList(first.getAckId())))
+                .execute();
+        assertEquals(1, transport.getBacklog(SUBSCRIPTION));
+    }
+
+    @Test
+    public void testModifyAckDeadline() throws Exception {
+        publish("a");
+        ReceivedMessage first = pull(1).get(0);
+        client.projects().subscriptions().modifyAckDeadline(SUBSCRIPTION,
+                new ModifyAckDeadlineRequest()
+                        .setAckIds(Collections.singletonList(first.getAckId()))
+                        .setAckDeadlineSeconds(60))
+                .execute();
+        now += 30000;
+        assertTrue(pull(1).isEmpty());
+        client.projects().subscriptions().modifyAckDeadline(SUBSCRIPTION,
+                new ModifyAckDeadlineRequest()
+                        .setAckIds(Collections.singletonList(first.getAckId()))
+                        .setAckDeadlineSeconds(0))
+                .execute();
+        assertEquals(1, pull(1).size());
+    }
+
+    @Test
+    public void testRejectsAPublishWithAnInvalidMessage() throws Exception {
+        PublishRequest request = new PublishRequest().setMessages(
+                Arrays.asList(
+                        new PubsubMessage().encodeData("a".getBytes("UTF-8")),
+                        new PubsubMessage()));
+        try {
+            client.projects().topics().publish(TOPIC, request).execute();
+            fail();
+        } catch (GoogleJsonResponseException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+        assertEquals(0, transport.getBacklog(SUBSCRIPTION));
+        assertEquals(Collections.singletonList("1"), publish("b"));
+    }
+
+    @Test
+    public void testLongPollWakesUpOnPublish() throws Exception {
+        Thread publisher = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                    publish("a");
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        publisher.start();
+        List<ReceivedMessage> messages = client.projects().subscriptions()
+                .pull(SUBSCRIPTION, new PullRequest().setMaxMessages(10))
+                .execute()
+                .getReceivedMessages();
+        publisher.join();
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        Pubsub bareClient = new Pubsub.Builder(transport, jsonFactory, null)
+                .setRootUrl("http://fake/")
+                .build();
+        try {
+            bareClient.projects().topics().create(TOPIC, new Topic())
+                    .execute();
+            fail();
+        } catch (GoogleJsonResponseException e) {
+            assertEquals(409, e.getStatusCode());
+        }
+        try {
+            bareClient.projects().subscriptions()
+                    .get("projects/test/subscriptions/missing").execute();
+            fail();
+        } catch (GoogleJsonResponseException e) {
+            assertEquals(404, e.getStatusCode());
+        }
+        transport.setErrorRate(1);
+        try {
+            bareClient.projects().topics().get(TOPIC).execute();
+            fail();
+        } catch (GoogleJsonResponseException e) {
+            assertEquals(503, e.getStatusCode());
+            assertEquals("UNAVAILABLE", e.getDetails().get("status"));
+        }
+    }
+}
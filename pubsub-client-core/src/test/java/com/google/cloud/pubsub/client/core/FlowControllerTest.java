@@ -0,0 +1,52 @@
+package com.google.cloud.pubsub.client.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FlowControllerTest {
+
+    @Test
+    public void testShrinksReservations() throws Exception {
+        FlowController flowController = new FlowController(1500, 1000000);
+        assertEquals(1000, flowController.reserve(1000));
+        assertEquals(500, flowController.reserve(1000));
+        flowController.received(1000, 200, 2000);
+        assertEquals(700, flowController.getOutstandingMessages());
+        assertEquals(2000, flowController.getOutstandingBytes());
+        assertEquals(800, flowController.reserve(1000));
+    }
+
+    @Test
+    public void testBlocksUntilReleased() throws Exception {
+        final FlowController flowController = new FlowController(1000, 100);
+        int reserved = flowController.reserve(10);
+        flowController.received(reserved, 2, 200);
+        final AtomicInteger granted = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread puller = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    granted.set(flowController.reserve(10));
+                    done.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        puller.start();
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+        flowController.release(100);
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+        flowController.release(100);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(10, granted.get());
+        assertEquals(10, flowController.getOutstandingMessages());
+        assertEquals(0, flowController.getOutstandingBytes());
+    }
+}
@@ -0,0 +1,166 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PublishRequest;
+import com.google.api.services.pubsub.model.PublishResponse;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HedgedPublisherTest {
+
+    private static final String TOPIC = "projects/test/topics/t";
+
+    private static final long SLOW_MILLIS = 2000;
+
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger messageIds = new AtomicInteger();
+
+    private Pubsub client;
+
+    @Before
+    public void setUp() {
+        // The first copy of every call is slow, the hedge is fast.
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        String body = getContentAsString();
+                        boolean first = !sent.contains(body);
+                        sent.add(body);
+                        if (first) {
+                            try {
+                                Thread.sleep(SLOW_MILLIS);
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                        }
+                        return new MockLowLevelHttpResponse()
+                                .setContentType("application/json")
+                                .setContent("{\"messageIds\": [\""
+                                        + messageIds.incrementAndGet()
+                                        + "\"]}");
+                    }
+                };
+            }
+        };
+        client = PubsubClients.getClient(transport,
+                JacksonFactory.getDefaultInstance(), "http://fake", "test");
+    }
+
+    private static PublishRequest request(String payload) throws Exception {
+        return new PublishRequest().setMessages(Collections.singletonList(
+                new PubsubMessage().encodeData(payload.getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void testHedgeWins() throws Exception {
+        try (HedgedPublisher publisher = new HedgedPublisher(client, 95, 0.1)) {
+            PublishRequest request = request("hello");
+            long start = System.nanoTime();
+            PublishResponse response = publisher.publish(TOPIC, request);
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            // The hedge responded first.
+            assertEquals(Collections.singletonList("1"),
+                    response.getMessageIds());
+            assertTrue(millis < SLOW_MILLIS);
+            assertEquals(1, publisher.getHedges());
+            assertEquals(1, publisher.getHedgeWins());
+            // Both copies carry the same idempotency key.
+            assertEquals(2, sent.size());
+            assertEquals(sent.get(0), sent.get(1));
+            String key = request.getMessages().get(0).getAttributes()
+                    .get(HedgedPublisher.IDEMPOTENCY_KEY_ATTRIBUTE);
+            assertNotNull(key);
+            assertTrue(sent.get(0).contains(key));
+        }
+    }
+
+    @Test
+    public void testHedgesOnNewThreadsOfTheFactory() throws Exception {
+        final AtomicInteger threads = new AtomicInteger();
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                threads.incrementAndGet();
+                return new Thread(r);
+            }
+        };
+        try (HedgedPublisher publisher = new HedgedPublisher(client, 95, 0.1,
+                threadFactory)) {
+            PublishResponse response = publisher.publish(TOPIC,
+                    request("hi"));
+
+            assertEquals(Collections.singletonList("1"),
+                    response.getMessageIds());
+            assertEquals(1, publisher.getHedgeWins());
+            assertEquals(2, threads.get());
+        }
+    }
+
+    @Test
+    public void testDoesNotHedgeWhenDisabled() throws Exception {
+        try (HedgedPublisher publisher = new HedgedPublisher(client, 95, 0)) {
+            PublishResponse response = publisher.publish(TOPIC,
+                    request("hello"));
+
+            assertEquals(Collections.singletonList("1"),
+                    response.getMessageIds());
+            assertEquals(0, publisher.getHedges());
+            assertEquals(1, sent.size());
+        }
+    }
+
+    @Test
+    public void testBatchingPublisherCountsTheKey() throws Exception {
+        try (HedgedPublisher hedger = new HedgedPublisher(client, 95, 0)) {
+            PubsubMessage message = new PubsubMessage()
+                    .encodeData("hello".getBytes("UTF-8"));
+            int unkeyedSize = BatchingPublisher.sizeOf(message);
+            BatchingPublisher publisher = new BatchingPublisher(client,
+                    BatchingPublisher.MAX_MESSAGES_PER_REQUEST,
+                    BatchingPublisher.MAX_REQUEST_BYTES, 60000, 1, hedger);
+            publisher.publish(TOPIC, message);
+
+            // The key is added before the message is sized, not when sent.
+            assertNotNull(message.getAttributes()
+                    .get(HedgedPublisher.IDEMPOTENCY_KEY_ATTRIBUTE));
+            assertTrue(BatchingPublisher.sizeOf(message) > unkeyedSize);
+            publisher.close();
+            assertEquals(1, sent.size());
+        }
+    }
+
+    @Test
+    public void testKeepsExistingIdempotencyKey() throws Exception {
+        try (HedgedPublisher publisher = new HedgedPublisher(client, 95, 0)) {
+            PublishRequest request = request("hello");
+            request.getMessages().get(0).setAttributes(
+                    Collections.singletonMap(
+                            HedgedPublisher.IDEMPOTENCY_KEY_ATTRIBUTE, "k"));
+            publisher.publish(TOPIC, request);
+
+            assertEquals("k", request.getMessages().get(0).getAttributes()
+                    .get(HedgedPublisher.IDEMPOTENCY_KEY_ATTRIBUTE));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class HttpTransportsTest {
+
+    private HttpServer server;
+
+    private final Set<Integer> clientPorts =
+            Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSharedTransportIsShared() {
+        assertSame(HttpTransports.getSharedTransport(),
+                HttpTransports.getSharedTransport());
+    }
+
+    @Test
+    public void testReusesConnections() throws Exception {
+        HttpTransport transport = HttpTransports.newPooledTransport(2);
+        HttpRequestFactory factory = transport.createRequestFactory();
+        GenericUrl url = new GenericUrl("http://localhost:"
+                + server.getAddress().getPort() + "/");
+        for (int i = 0; i < 10; i++) {
+            assertEquals("ok", factory.buildGetRequest(url).execute()
+                    .parseAsString());
+        }
+        assertEquals(1, clientPorts.size());
+    }
+}
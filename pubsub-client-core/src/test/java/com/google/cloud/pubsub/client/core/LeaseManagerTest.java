@@ -0,0 +1,141 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Clock;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PublishRequest;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.api.services.pubsub.model.Subscription;
+import com.google.api.services.pubsub.model.Topic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LeaseManagerTest {
+
+    private static final String TOPIC = "projects/test/topics/t";
+
+    private static final String SUBSCRIPTION =
+            "projects/test/subscriptions/s";
+
+    private static final int ACK_DEADLINE_SECONDS = 10;
+
+    private final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+    // Read by the background checks of the lease manager.
+    private volatile long now = 1000000;
+
+    private final Clock clock = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    };
+
+    private Pubsub client;
+
+    private LeaseManager leaseManager;
+
+    @Before
+    public void setUp() throws Exception {
+        // The fake and the lease manager share the clock.
+        FakePubsubTransport transport =
+                new FakePubsubTransport(jsonFactory, clock);
+        client = PubsubClients.getClient(transport, jsonFactory, "http://fake",
+                "test");
+        client.projects().topics().create(TOPIC, new Topic()).execute();
+        client.projects().subscriptions().create(SUBSCRIPTION,
+                new Subscription().setTopic(TOPIC)
+                        .setAckDeadlineSeconds(ACK_DEADLINE_SECONDS))
+                .execute();
+        client.projects().topics().publish(TOPIC, new PublishRequest()
+                .setMessages(Collections.singletonList(new PubsubMessage()
+                        .encodeData("a".getBytes("UTF-8")))))
+                .execute();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (leaseManager != null) {
+            leaseManager.close();
+        }
+    }
+
+    private List<ReceivedMessage> pull() throws Exception {
+        List<ReceivedMessage> messages = client.projects().subscriptions()
+                .pull(SUBSCRIPTION, new PullRequest()
+                        .setReturnImmediately(true)
+                        .setMaxMessages(10))
+                .execute()
+                .getReceivedMessages();
+        if (messages == null) {
+            return Collections.emptyList();
+        }
+        return messages;
+    }
+
+    private String receive() throws Exception {
+        List<ReceivedMessage> messages = pull();
+        assertEquals(1, messages.size());
+        String ackId = messages.get(0).getAckId();
+        leaseManager.add(ackId);
+        return ackId;
+    }
+
+    @Test
+    public void testKeepsLeasedMessagesPastTheirDeadline() throws Exception {
+        leaseManager = new LeaseManager(client, SUBSCRIPTION,
+                ACK_DEADLINE_SECONDS,
+                LeaseManager.DEFAULT_MAX_EXTENSION_SECONDS, clock);
+        receive();
+        for (int i = 0; i < 5; i++) {
+            now += 8000;
+            leaseManager.extendExpiringLeases();
+            assertTrue(pull().isEmpty());
+        }
+        assertEquals(1, leaseManager.getOutstandingCount());
+    }
+
+    @Test
+    public void testCloseNacksTheOutstandingMessages() throws Exception {
+        leaseManager = new LeaseManager(client, SUBSCRIPTION,
+                ACK_DEADLINE_SECONDS,
+                LeaseManager.DEFAULT_MAX_EXTENSION_SECONDS, clock);
+        String ackId = receive();
+        now += 8000;
+        leaseManager.extendExpiringLeases();
+        leaseManager.close();
+        leaseManager = null;
+        // Redelivered at once, without waiting for the deadline.
+        List<ReceivedMessage> messages = pull();
+        assertEquals(1, messages.size());
+        assertNotEquals(ackId, messages.get(0).getAckId());
+    }
+
+    @Test
+    public void testStopsExtendingAfterTheMaxExtension() throws Exception {
+        leaseManager = new LeaseManager(client, SUBSCRIPTION,
+                ACK_DEADLINE_SECONDS, 15, clock);
+        receive();
+        now += 8000;
+        leaseManager.extendExpiringLeases();
+        assertEquals(1, leaseManager.getOutstandingCount());
+        // Held for 16 seconds: the lease is given up, not extended.
+        now += 8000;
+        leaseManager.extendExpiringLeases();
+        assertEquals(0, leaseManager.getOutstandingCount());
+        now += 1000;
+        assertTrue(pull().isEmpty());
+        // The last extension, given at 8 seconds, expires at 18.
+        now += 1000;
+        assertEquals(1, pull().size());
+    }
+}
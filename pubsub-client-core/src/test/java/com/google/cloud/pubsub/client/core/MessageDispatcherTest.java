@@ -0,0 +1,111 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MessageDispatcherTest {
+
+    private static final int MESSAGES_PER_KEY = 200;
+    private static final String[] KEYS = {"a", "b", "c", "d", "e"};
+
+    private MessageDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    private static ReceivedMessage message(String key, int seq) {
+        PubsubMessage pubsubMessage = new PubsubMessage()
+                .setAttributes(ImmutableMap.of("key", key,
+                        "seq", Integer.toString(seq)));
+        return new ReceivedMessage()
+                .setAckId(key + "-" + seq)
+                .setMessage(pubsubMessage);
+    }
+
+    @Test
+    public void testKeepsOrderPerKey() throws Exception {
+        final Map<String, List<Integer>> seen = new HashMap<>();
+        for (String key : KEYS) {
+            seen.put(key, Collections.synchronizedList(
+                    new ArrayList<Integer>()));
+        }
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public void handle(PubsubMessage message) {
+                Map<String, String> attributes = message.getAttributes();
+                seen.get(attributes.get("key"))
+                        .add(Integer.parseInt(attributes.get("seq")));
+            }
+        };
+        dispatcher = new MessageDispatcher(handler, 4, 16, "key");
+        final CountDownLatch done =
+                new CountDownLatch(KEYS.length * MESSAGES_PER_KEY);
+        MessageDispatcher.Callback callback = new MessageDispatcher.Callback() {
+            @Override
+            public void onHandled(ReceivedMessage message) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailed(ReceivedMessage message, Exception cause) {
+                fail(cause.toString());
+            }
+        };
+        for (int i = 0; i < MESSAGES_PER_KEY; i++) {
+            for (String key : KEYS) {
+                dispatcher.dispatch(message(key, i), callback);
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (String key : KEYS) {
+            List<Integer> sequence = seen.get(key);
+            assertEquals(MESSAGES_PER_KEY, sequence.size());
+            for (int i = 0; i < MESSAGES_PER_KEY; i++) {
+                assertEquals(Integer.valueOf(i), sequence.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testReportsHandlerFailures() throws Exception {
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public void handle(PubsubMessage message) throws Exception {
+                throw new IllegalStateException("boom");
+            }
+        };
+        dispatcher = new MessageDispatcher(handler, 2, 4, null);
+        final CountDownLatch failed = new CountDownLatch(1);
+        dispatcher.dispatch(message("a", 0), new MessageDispatcher.Callback() {
+            @Override
+            public void onHandled(ReceivedMessage message) {
+                fail("should not be handled");
+            }
+
+            @Override
+            public void onFailed(ReceivedMessage message, Exception cause) {
+                assertEquals("a-0", message.getAckId());
+                failed.countDown();
+            }
+        });
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+    }
+}
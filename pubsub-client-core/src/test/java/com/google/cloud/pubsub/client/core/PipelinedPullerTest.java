@@ -0,0 +1,184 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Clock;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PublishRequest;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.api.services.pubsub.model.Subscription;
+import com.google.api.services.pubsub.model.Topic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PipelinedPullerTest {
+
+    private static final String TOPIC = "projects/test/topics/t";
+
+    private static final String SUBSCRIPTION =
+            "projects/test/subscriptions/s";
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+    private FakePubsubTransport transport;
+
+    private Pubsub client;
+
+    private Thread runner;
+
+    @Before
+    public void setUp() throws Exception {
+        // The clock of the fake stands still, so that nothing is redelivered
+        // unless it is nacked.
+        transport = new FakePubsubTransport(jsonFactory, new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return 1000000;
+            }
+        });
+        transport.setPullTimeoutMillis(100);
+        client = PubsubClients.getClient(transport, jsonFactory, "http://fake",
+                "test");
+        client.projects().topics().create(TOPIC, new Topic()).execute();
+        client.projects().subscriptions().create(SUBSCRIPTION,
+                new Subscription().setTopic(TOPIC).setAckDeadlineSeconds(10))
+                .execute();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (runner != null) {
+            runner.interrupt();
+            runner.join(TIMEOUT_MILLIS);
+        }
+    }
+
+    private void publish(int count) throws Exception {
+        PublishRequest request = new PublishRequest().setMessages(
+                new ArrayList<PubsubMessage>());
+        for (int i = 0; i < count; i++) {
+            request.getMessages().add(new PubsubMessage()
+                    .encodeData(Integer.toString(i).getBytes("UTF-8")));
+        }
+        client.projects().topics().publish(TOPIC, request).execute();
+    }
+
+    private List<ReceivedMessage> pullAll() throws Exception {
+        List<ReceivedMessage> messages = client.projects().subscriptions()
+                .pull(SUBSCRIPTION, new PullRequest()
+                        .setReturnImmediately(true)
+                        .setMaxMessages(1000))
+                .execute()
+                .getReceivedMessages();
+        if (messages == null) {
+            return new ArrayList<>();
+        }
+        return messages;
+    }
+
+    private void start(final MessageHandler handler, int threads,
+                       int queueSize, int concurrency) {
+        final PipelinedPuller puller = new PipelinedPuller(client,
+                SUBSCRIPTION,
+                new MessageDispatcher(handler, threads, queueSize, null),
+                concurrency, LeaseManager.DEFAULT_MAX_EXTENSION_SECONDS,
+                new FlowController(1000, 1024 * 1024));
+        runner = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    puller.run();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        runner.start();
+    }
+
+    private void stop() throws Exception {
+        runner.interrupt();
+        runner.join(TIMEOUT_MILLIS);
+        assertFalse(runner.isAlive());
+        runner = null;
+    }
+
+    @Test
+    public void testHandlesAndAcksEveryMessageOnce() throws Exception {
+        final int count = 500;
+        final Map<String, AtomicInteger> deliveries =
+                new ConcurrentHashMap<>();
+        final CountDownLatch handled = new CountDownLatch(count);
+        start(new MessageHandler() {
+            @Override
+            public void handle(PubsubMessage message) {
+                AtomicInteger previous = new AtomicInteger();
+                AtomicInteger current = deliveries.putIfAbsent(
+                        message.getMessageId(), previous);
+                if (current == null) {
+                    current = previous;
+                }
+                current.incrementAndGet();
+                handled.countDown();
+            }
+        }, 4, 16, 2);
+        publish(count);
+        assertTrue(handled.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (transport.getBacklog(SUBSCRIPTION) > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        stop();
+
+        assertEquals(0, transport.getBacklog(SUBSCRIPTION));
+        assertEquals(count, deliveries.size());
+        for (AtomicInteger delivered : deliveries.values()) {
+            assertEquals(1, delivered.get());
+        }
+        assertTrue(pullAll().isEmpty());
+    }
+
+    @Test
+    public void testCloseReleasesOutstandingLeases() throws Exception {
+        final int count = 50;
+        final CountDownLatch started = new CountDownLatch(1);
+        // A single slow handler thread and a short queue keep most of the
+        // messages pulled but not handed to the handler.
+        start(new MessageHandler() {
+            @Override
+            public void handle(PubsubMessage message) throws Exception {
+                started.countDown();
+                new CountDownLatch(1).await();
+            }
+        }, 1, 2, 1);
+        publish(count);
+        assertTrue(started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        stop();
+
+        // Every message is back right away, well before its deadline.
+        Set<String> messageIds = new HashSet<>();
+        for (ReceivedMessage message : pullAll()) {
+            messageIds.add(message.getMessage().getMessageId());
+        }
+        assertEquals(count, messageIds.size());
+        assertEquals(count, transport.getBacklog(SUBSCRIPTION));
+    }
+}
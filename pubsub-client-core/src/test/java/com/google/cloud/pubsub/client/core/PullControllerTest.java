@@ -0,0 +1,48 @@
+package com.google.cloud.pubsub.client.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PullControllerTest {
+
+    private static void fullPull(PullController controller) throws Exception {
+        int batchSize = controller.beginPull();
+        controller.endPull(batchSize, batchSize, 50, 0);
+    }
+
+    @Test
+    public void testGrowsOnFullPulls() throws Exception {
+        PullController controller = new PullController(1000, 4);
+        assertEquals(100, controller.getBatchSize());
+        assertEquals(1, controller.getConcurrency());
+        for (int i = 0; i < 9; i++) {
+            fullPull(controller);
+        }
+        assertEquals(1000, controller.getBatchSize());
+        assertEquals(1, controller.getConcurrency());
+        for (int i = 0; i < 10; i++) {
+            fullPull(controller);
+        }
+        assertEquals(4, controller.getConcurrency());
+    }
+
+    @Test
+    public void testShrinksOnEmptyAndSlowPulls() throws Exception {
+        PullController controller = new PullController(1000, 8);
+        for (int i = 0; i < 20; i++) {
+            fullPull(controller);
+        }
+        assertEquals(8, controller.getConcurrency());
+        int batchSize = controller.beginPull();
+        controller.endPull(batchSize, 0, 90000, 0);
+        assertEquals(4, controller.getConcurrency());
+        batchSize = controller.beginPull();
+        controller.endPull(batchSize, batchSize, 100, 5000);
+        assertEquals(2, controller.getConcurrency());
+        batchSize = controller.beginPull();
+        controller.endPull(batchSize, batchSize, 5000, 0);
+        assertEquals(500, controller.getBatchSize());
+        assertEquals(2, controller.getConcurrency());
+    }
+}
@@ -0,0 +1,124 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.pubsub.Pubsub;
+import com.google.api.services.pubsub.model.PublishRequest;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.api.services.pubsub.model.PullResponse;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.api.services.pubsub.model.Subscription;
+import com.google.api.services.pubsub.model.Topic;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PullResponseReaderTest {
+
+    private final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+    private PullResponseReader reader(String json) throws Exception {
+        return new PullResponseReader(jsonFactory.createJsonParser(json));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testReadsWhatTheModelWrites() throws Exception {
+        Random random = new Random(42);
+        List<ReceivedMessage> messages = new ArrayList<>();
+        for (int size = 0; size < 3000; size += 97) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            messages.add(new ReceivedMessage()
+                    .setAckId("ack-" + size)
+                    .setMessage(new PubsubMessage()
+                            .encodeData(data)
+                            .setMessageId("id-" + size)
+                            .setPublishTime("2016-01-01T00:00:00Z")
+                            .setAttributes(Collections.singletonMap(
+                                    "size", Integer.toString(size)))));
+        }
+        String json = jsonFactory.toString(
+                new PullResponse().setReceivedMessages(messages));
+        try (PullResponseReader reader = reader(json)) {
+            for (ReceivedMessage expected : messages) {
+                assertTrue(reader.next());
+                assertEquals(expected.getAckId(), reader.getAckId());
+                assertEquals(expected.getMessage().getMessageId(),
+                        reader.getMessageId());
+                assertEquals(expected.getMessage().getPublishTime(),
+                        reader.getPublishTime());
+                assertEquals(expected.getMessage().getAttributes(),
+                        reader.getAttributes());
+                assertArrayEquals(expected.getMessage().decodeData(),
+                        toArray(reader.getData()));
+            }
+            assertFalse(reader.next());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testEmptyAndMissingFields() throws Exception {
+        try (PullResponseReader reader = reader("{}")) {
+            assertFalse(reader.next());
+        }
+        try (PullResponseReader reader = reader(
+                "{\"other\": [1, {\"a\": 2}], \"receivedMessages\": ["
+                + "{\"ackId\": \"a\", \"extra\": {\"x\": [1]},"
+                + " \"message\": {\"attributes\": {\"k\": \"v\"}}},"
+                + "{\"ackId\": \"b\", \"message\": {\"data\": \"_-8\"}}"
+                + "]}")) {
+            assertTrue(reader.next());
+            assertEquals("a", reader.getAckId());
+            assertNull(reader.getData());
+            assertEquals("v", reader.getAttributes().get("k"));
+            assertTrue(reader.next());
+            assertEquals("b", reader.getAckId());
+            assertNull(reader.getAttributes());
+            assertArrayEquals(new byte[] {(byte) 0xff, (byte) 0xef},
+                    toArray(reader.getData()));
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testPullsFromTheApi() throws Exception {
+        Pubsub client = PubsubClients.getClient(new FakePubsubTransport(),
+                jsonFactory, Pubsub.DEFAULT_ROOT_URL, "test");
+        String topic = "projects/test/topics/t";
+        String subscription = "projects/test/subscriptions/s";
+        client.projects().topics().create(topic, new Topic()).execute();
+        client.projects().subscriptions().create(subscription,
+                new Subscription().setTopic(topic)).execute();
+        client.projects().topics().publish(topic, new PublishRequest()
+                .setMessages(Arrays.asList(
+                        new PubsubMessage().encodeData("a".getBytes("UTF-8")),
+                        new PubsubMessage().encodeData("bc".getBytes("UTF-8")))))
+                .execute();
+        PullRequest pullRequest = new PullRequest()
+                .setReturnImmediately(true)
+                .setMaxMessages(10);
+        try (PullResponseReader reader =
+                     PullResponseReader.pull(client, subscription, pullRequest)) {
+            assertTrue(reader.next());
+            assertEquals("a", new String(toArray(reader.getData()), "UTF-8"));
+            assertTrue(reader.next());
+            assertEquals("bc", new String(toArray(reader.getData()), "UTF-8"));
+            assertFalse(reader.next());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.Sleeper;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class RetryHttpInitializerWrapperTest {
+
+    private final AtomicLong slept = new AtomicLong();
+
+    private final RequestMetrics metrics = new RequestMetrics(false);
+
+    private final Sleeper sleeper = new Sleeper() {
+        @Override
+        public void sleep(long millis) {
+            slept.addAndGet(millis);
+        }
+    };
+
+    private RetryHttpInitializerWrapper wrapper() {
+        return wrapper(new RetryBudget());
+    }
+
+    private RetryHttpInitializerWrapper wrapper(RetryBudget budget) {
+        GoogleCredential credential = new GoogleCredential()
+                .setAccessToken("token")
+                .setExpirationTimeMilliseconds(Long.MAX_VALUE);
+        return new RetryHttpInitializerWrapper(credential, sleeper, metrics,
+                new RetryPolicy(budget, 100, 1000, 60000));
+    }
+
+    private static MockHttpTransport transport(List<Integer> statusCodes) {
+        final Iterator<Integer> codes = statusCodes.iterator();
+        return new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        return new MockLowLevelHttpResponse()
+                                .setStatusCode(codes.next());
+                    }
+                };
+            }
+        };
+    }
+
+    @Test
+    public void testRecordsRetriesByMethod() throws Exception {
+        MockHttpTransport transport = transport(Arrays.asList(503, 500, 200));
+        transport.createRequestFactory(wrapper())
+                .buildGetRequest(new GenericUrl(
+                        "https://pubsub.googleapis.com/v1/projects/p/"
+                        + "subscriptions/s:pull"))
+                .execute();
+        MethodMetrics pull = metrics.forMethod("pull");
+        assertEquals(3, pull.getAttempts());
+        assertEquals(2, pull.getRetries());
+        assertEquals(0, pull.getGiveUps());
+        assertEquals(0, pull.getFailures());
+        assertEquals(Long.valueOf(1), pull.getStatusCodes().get(503));
+        assertEquals(Long.valueOf(1), pull.getStatusCodes().get(200));
+        assertTrue(pull.getBackOffMillis() > 0);
+        assertEquals(slept.get(), pull.getBackOffMillis());
+        assertEquals(1, metrics.getAll().size());
+    }
+
+    @Test
+    public void testRecordsNonRetryableErrorsAsFailures() throws Exception {
+        MockHttpTransport transport =
+                transport(Collections.singletonList(404));
+        try {
+            transport.createRequestFactory(wrapper())
+                    .buildGetRequest(new GenericUrl(
+                            "https://pubsub.googleapis.com/v1/projects/p/"
+                            + "topics/t"))
+                    .execute();
+            fail();
+        } catch (HttpResponseException e) {
+            assertEquals(404, e.getStatusCode());
+        }
+        MethodMetrics get = metrics.forMethod("get");
+        assertEquals(1, get.getAttempts());
+        assertEquals(0, get.getRetries());
+        assertEquals(0, get.getGiveUps());
+        assertEquals(1, get.getFailures());
+        assertEquals(0, get.getBackOffMillis());
+    }
+
+    @Test
+    public void testFailsFastWhenTheBudgetIsExhausted() throws Exception {
+        RetryBudget budget = new RetryBudget(1, 0, 0, Ticker.systemTicker());
+        MockHttpTransport transport = transport(Arrays.asList(429, 503, 200));
+        try {
+            transport.createRequestFactory(wrapper(budget))
+                    .buildPostRequest(new GenericUrl(
+                            "https://pubsub.googleapis.com/v1/projects/p/"
+                            + "topics/t:publish"), null)
+                    .execute();
+            fail();
+        } catch (HttpResponseException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        MethodMetrics publish = metrics.forMethod("publish");
+        assertEquals(2, publish.getAttempts());
+        assertEquals(1, publish.getRetries());
+        assertEquals(1, publish.getGiveUps());
+        assertEquals(0, publish.getFailures());
+        assertEquals(1, budget.getRefused());
+    }
+}
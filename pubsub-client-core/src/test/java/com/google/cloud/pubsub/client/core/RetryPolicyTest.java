@@ -0,0 +1,79 @@
+package com.google.cloud.pubsub.client.core;
+
+import com.google.api.client.util.BackOff;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+    private long nanos;
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos;
+        }
+    };
+
+    @Test
+    public void testBudgetRefills() {
+        RetryBudget budget = new RetryBudget(2, 1, 0.5, ticker);
+        assertTrue(budget.tryRetry());
+        assertTrue(budget.tryRetry());
+        assertFalse(budget.tryRetry());
+        budget.onRequest();
+        budget.onRequest();
+        assertTrue(budget.tryRetry());
+        assertFalse(budget.tryRetry());
+        nanos += TimeUnit.MILLISECONDS.toNanos(500);
+        assertFalse(budget.tryRetry());
+        nanos += TimeUnit.MILLISECONDS.toNanos(500);
+        assertTrue(budget.tryRetry());
+        nanos += TimeUnit.SECONDS.toNanos(100);
+        assertEquals(2, budget.getTokens(), 0.001);
+        assertEquals(3, budget.getRefused());
+    }
+
+    @Test
+    public void testDelaysAreJitteredAndCapped() throws Exception {
+        RetryPolicy policy = new RetryPolicy(
+                new RetryBudget(1000, 0, 0, ticker), 100, 1000, 60000);
+        BackOff backOff = policy.newBackOff();
+        long previous = 100;
+        boolean varied = false;
+        for (int i = 0; i < 100; i++) {
+            long delay = backOff.nextBackOffMillis();
+            assertTrue(delay >= 100);
+            assertTrue(delay <= Math.min(1000, previous * 3));
+            varied |= delay != previous;
+            previous = delay;
+        }
+        assertTrue(varied);
+    }
+
+    @Test
+    public void testStopsWhenTheBudgetIsExhausted() throws Exception {
+        RetryPolicy policy = new RetryPolicy(
+                new RetryBudget(1, 0, 0, ticker), 100, 1000, 60000);
+        assertNotEquals(BackOff.STOP, policy.newBackOff().nextBackOffMillis());
+        assertEquals(BackOff.STOP, policy.newBackOff().nextBackOffMillis());
+    }
+
+    @Test
+    public void testReadTimeouts() {
+        RetryPolicy policy = new RetryPolicy(new RetryBudget(), 100, 1000,
+                60000);
+        assertEquals(RetryPolicy.PULL_READ_TIMEOUT_MILLIS,
+                policy.getReadTimeoutMillis("pull"));
+        assertEquals(RetryPolicy.SHORT_READ_TIMEOUT_MILLIS,
+                policy.getReadTimeoutMillis("publish"));
+        assertEquals(RetryPolicy.DEFAULT_READ_TIMEOUT_MILLIS,
+                policy.getReadTimeoutMillis("get"));
+        policy.setReadTimeoutMillis("get", 5);
+        assertEquals(5, policy.getReadTimeoutMillis("get"));
+    }
+}